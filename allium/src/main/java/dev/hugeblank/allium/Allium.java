@@ -55,6 +55,7 @@ public class Allium implements ModInitializer {
         }
 
         LOGGER.info("Loading NathanFudge's Yarn Remapper");
+        // Loads in the background while extensions and scripts start, until something first needs a mapping
         MAPPINGS = YarnLoader.init();
 
         Set<ModContainer> mods = new HashSet<>();
@@ -1,11 +1,19 @@
 package dev.hugeblank.allium.loader.type;
 
 import me.basiqueevangelist.enhancedreflection.api.EClass;
+import org.jetbrains.annotations.Nullable;
 import org.squiddev.cobalt.LuaTable;
 import org.squiddev.cobalt.LuaUserdata;
+import org.squiddev.cobalt.LuaValue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class AlliumUserdata<T> extends LuaUserdata {
     private final EClass<T> clazz;
+    // Method closures bound to this instance, so that indexing a bound userdata doesn't allocate a new one every time.
+    // Concurrent, since one wrapper is shared by every state and thread that sees the same object.
+    private volatile @Nullable Map<String, LuaValue> boundMethods;
 
     AlliumUserdata(Object obj, LuaTable metatable, EClass<T> clazz) {
         super(obj, metatable);
@@ -37,6 +45,28 @@ public class AlliumUserdata<T> extends LuaUserdata {
         return test.cast(instance);
     }
 
+    @Nullable LuaValue getBoundMethod(String name) {
+        Map<String, LuaValue> methods = boundMethods;
+        return methods == null ? null : methods.get(name);
+    }
+
+    /**
+     * @return the method bound under this name, which is a different one if another thread got there first
+     */
+    LuaValue putBoundMethod(String name, LuaValue method) {
+        Map<String, LuaValue> methods = boundMethods;
+
+        if (methods == null) {
+            synchronized (this) {
+                methods = boundMethods;
+                if (methods == null) boundMethods = methods = new ConcurrentHashMap<>();
+            }
+        }
+
+        LuaValue existing = methods.putIfAbsent(name, method);
+        return existing == null ? method : existing;
+    }
+
     @Override
     public T toUserdata() {
         return clazz.cast(instance);
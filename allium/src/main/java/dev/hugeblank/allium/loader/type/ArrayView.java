@@ -0,0 +1,226 @@
+package dev.hugeblank.allium.loader.type;
+
+import dev.hugeblank.allium.loader.type.coercion.TypeCoercions;
+import me.basiqueevangelist.enhancedreflection.api.EClass;
+import me.basiqueevangelist.enhancedreflection.api.typeuse.EClassUse;
+import org.squiddev.cobalt.*;
+import org.squiddev.cobalt.function.LibFunction;
+import org.squiddev.cobalt.function.VarArgFunction;
+
+/**
+ * Userdata that exposes a Java array to Lua without copying it. Indexing, {@code #} and {@code ipairs} read the array
+ * in place, and assignments write straight back into it.
+ */
+public final class ArrayView<T> extends AlliumUserdata<T> {
+    private static final LuaTable METATABLE = createMetatable();
+
+    private final Accessor accessor;
+    private final EClassUse<?> componentUse;
+
+    private ArrayView(Object array, EClass<T> clazz, EClassUse<?> componentUse) {
+        super(array, METATABLE, clazz);
+        this.accessor = Accessor.of(array.getClass().getComponentType());
+        this.componentUse = componentUse;
+    }
+
+    public static ArrayView<?> of(Object array, EClassUse<?> componentUse) {
+        if (!array.getClass().isArray()) throw new IllegalArgumentException(array.getClass() + " is not an array");
+
+        return new ArrayView<>(array, EClass.fromJava(array.getClass()), componentUse);
+    }
+
+    public static ArrayView<?> of(Object array) {
+        return of(array, EClass.fromJava(array.getClass().getComponentType()).asEmptyUse());
+    }
+
+    public int length() {
+        return accessor.length(instance);
+    }
+
+    public LuaValue get(int index) {
+        return accessor.get(instance, index, componentUse);
+    }
+
+    public void set(LuaState state, int index, LuaValue value) throws LuaError {
+        accessor.set(state, instance, index, value, componentUse);
+    }
+
+    private static LuaTable createMetatable() {
+        LuaTable metatable = new LuaTable();
+
+        metatable.rawset("__index", LibFunction.create((state, arg1, arg2) -> {
+            ArrayView<?> view = checkView(arg1);
+            int index = toIndex(arg2, view.length());
+
+            return index < 0 ? Constants.NIL : view.get(index);
+        }));
+
+        metatable.rawset("__newindex", LibFunction.create((state, arg1, arg2, arg3) -> {
+            ArrayView<?> view = checkView(arg1);
+            int index = toIndex(arg2, view.length());
+
+            if (index < 0) throw new LuaError("array index " + arg2 + " out of bounds for length " + view.length());
+
+            view.set(state, index, arg3);
+            return Constants.NIL;
+        }));
+
+        metatable.rawset("__len", LibFunction.create((state, arg1) -> ValueFactory.valueOf(checkView(arg1).length())));
+
+        VarArgFunction next = new VarArgFunction() {
+            @Override
+            public Varargs invoke(LuaState state, Varargs args) throws LuaError {
+                ArrayView<?> view = checkView(args.arg(1));
+                int index = args.arg(2).checkInteger(); // Lua index of the previous element, so the Java index of this one
+
+                if (index < 0 || index >= view.length()) return Constants.NIL;
+
+                return ValueFactory.varargsOf(ValueFactory.valueOf(index + 1), view.get(index));
+            }
+        };
+
+        metatable.rawset("__ipairs", new VarArgFunction() {
+            @Override
+            public Varargs invoke(LuaState state, Varargs args) throws LuaError {
+                return ValueFactory.varargsOf(next, checkView(args.arg(1)), ValueFactory.valueOf(0));
+            }
+        });
+        metatable.rawset("__pairs", metatable.rawget("__ipairs"));
+
+        return metatable;
+    }
+
+    private static ArrayView<?> checkView(LuaValue value) throws LuaError {
+        if (value instanceof ArrayView<?> view) return view;
+
+        throw new LuaError("expected array, got " + value.typeName());
+    }
+
+    /**
+     * @return the Java index for a Lua key, or -1 if the key isn't an index into the array
+     */
+    private static int toIndex(LuaValue key, int length) {
+        if (key.type() != Constants.TNUMBER) return -1;
+
+        double number = key.toDouble();
+        int index = (int) number - 1;
+
+        return index + 1 == number && index >= 0 && index < length ? index : -1;
+    }
+
+    private interface Accessor {
+        int length(Object array);
+
+        LuaValue get(Object array, int index, EClassUse<?> componentUse);
+
+        void set(LuaState state, Object array, int index, LuaValue value, EClassUse<?> componentUse) throws LuaError;
+
+        static Accessor of(Class<?> component) {
+            if (component == int.class) return IntAccessor.INSTANCE;
+            if (component == long.class) return LongAccessor.INSTANCE;
+            if (component == double.class) return DoubleAccessor.INSTANCE;
+            if (component == float.class) return FloatAccessor.INSTANCE;
+            if (component == short.class) return ShortAccessor.INSTANCE;
+            if (component == byte.class) return ByteAccessor.INSTANCE;
+            if (component == char.class) return CharAccessor.INSTANCE;
+            if (component == boolean.class) return BooleanAccessor.INSTANCE;
+            return ObjectAccessor.INSTANCE;
+        }
+    }
+
+    private enum IntAccessor implements Accessor {
+        INSTANCE;
+
+        public int length(Object array) { return ((int[]) array).length; }
+
+        public LuaValue get(Object array, int index, EClassUse<?> componentUse) { return ValueFactory.valueOf(((int[]) array)[index]); }
+
+        public void set(LuaState state, Object array, int index, LuaValue value, EClassUse<?> componentUse) throws LuaError { ((int[]) array)[index] = value.checkInteger(); }
+    }
+
+    private enum LongAccessor implements Accessor {
+        INSTANCE;
+
+        public int length(Object array) { return ((long[]) array).length; }
+
+        public LuaValue get(Object array, int index, EClassUse<?> componentUse) { return ValueFactory.valueOf(((long[]) array)[index]); }
+
+        public void set(LuaState state, Object array, int index, LuaValue value, EClassUse<?> componentUse) throws LuaError { ((long[]) array)[index] = value.checkLong(); }
+    }
+
+    private enum DoubleAccessor implements Accessor {
+        INSTANCE;
+
+        public int length(Object array) { return ((double[]) array).length; }
+
+        public LuaValue get(Object array, int index, EClassUse<?> componentUse) { return ValueFactory.valueOf(((double[]) array)[index]); }
+
+        public void set(LuaState state, Object array, int index, LuaValue value, EClassUse<?> componentUse) throws LuaError { ((double[]) array)[index] = value.checkDouble(); }
+    }
+
+    private enum FloatAccessor implements Accessor {
+        INSTANCE;
+
+        public int length(Object array) { return ((float[]) array).length; }
+
+        public LuaValue get(Object array, int index, EClassUse<?> componentUse) { return ValueFactory.valueOf(((float[]) array)[index]); }
+
+        public void set(LuaState state, Object array, int index, LuaValue value, EClassUse<?> componentUse) throws LuaError { ((float[]) array)[index] = (float) value.checkDouble(); }
+    }
+
+    private enum ShortAccessor implements Accessor {
+        INSTANCE;
+
+        public int length(Object array) { return ((short[]) array).length; }
+
+        public LuaValue get(Object array, int index, EClassUse<?> componentUse) { return ValueFactory.valueOf(((short[]) array)[index]); }
+
+        public void set(LuaState state, Object array, int index, LuaValue value, EClassUse<?> componentUse) throws LuaError { ((short[]) array)[index] = (short) value.checkInteger(); }
+    }
+
+    private enum ByteAccessor implements Accessor {
+        INSTANCE;
+
+        public int length(Object array) { return ((byte[]) array).length; }
+
+        public LuaValue get(Object array, int index, EClassUse<?> componentUse) { return ValueFactory.valueOf(((byte[]) array)[index]); }
+
+        public void set(LuaState state, Object array, int index, LuaValue value, EClassUse<?> componentUse) throws LuaError { ((byte[]) array)[index] = (byte) value.checkInteger(); }
+    }
+
+    private enum CharAccessor implements Accessor {
+        INSTANCE;
+
+        public int length(Object array) { return ((char[]) array).length; }
+
+        public LuaValue get(Object array, int index, EClassUse<?> componentUse) { return ValueFactory.valueOf(((char[]) array)[index]); }
+
+        public void set(LuaState state, Object array, int index, LuaValue value, EClassUse<?> componentUse) throws LuaError { ((char[]) array)[index] = (char) value.checkInteger(); }
+    }
+
+    private enum BooleanAccessor implements Accessor {
+        INSTANCE;
+
+        public int length(Object array) { return ((boolean[]) array).length; }
+
+        public LuaValue get(Object array, int index, EClassUse<?> componentUse) { return ValueFactory.valueOf(((boolean[]) array)[index]); }
+
+        public void set(LuaState state, Object array, int index, LuaValue value, EClassUse<?> componentUse) throws LuaError { ((boolean[]) array)[index] = value.checkBoolean(); }
+    }
+
+    private enum ObjectAccessor implements Accessor {
+        INSTANCE;
+
+        public int length(Object array) { return ((Object[]) array).length; }
+
+        public LuaValue get(Object array, int index, EClassUse<?> componentUse) { return TypeCoercions.toLuaValue(((Object[]) array)[index], componentUse); }
+
+        public void set(LuaState state, Object array, int index, LuaValue value, EClassUse<?> componentUse) throws LuaError {
+            try {
+                ((Object[]) array)[index] = TypeCoercions.toJava(state, value, componentUse.type());
+            } catch (InvalidArgumentException | ArrayStoreException e) {
+                throw new LuaError(e);
+            }
+        }
+    }
+}
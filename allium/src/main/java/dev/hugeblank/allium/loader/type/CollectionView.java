@@ -0,0 +1,238 @@
+package dev.hugeblank.allium.loader.type;
+
+import dev.hugeblank.allium.loader.type.coercion.TypeCoercions;
+import me.basiqueevangelist.enhancedreflection.api.EClass;
+import me.basiqueevangelist.enhancedreflection.api.typeuse.EClassUse;
+import org.jetbrains.annotations.Nullable;
+import org.squiddev.cobalt.*;
+import org.squiddev.cobalt.function.LibFunction;
+import org.squiddev.cobalt.function.LuaFunction;
+import org.squiddev.cobalt.function.VarArgFunction;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Userdata that lets Lua use a Java {@link List}, {@link Map} or {@link Iterable} like a table, without copying it.
+ * Lists are indexed from 1, maps by their keys, and {@code pairs}/{@code ipairs} walk the contents in place.
+ * Elements are only converted to Lua values when they're read.
+ */
+public final class CollectionView<T> extends AlliumUserdata<T> {
+    private static final LuaTable LIST_METATABLE = createMetatable(Kind.LIST);
+    private static final LuaTable MAP_METATABLE = createMetatable(Kind.MAP);
+    private static final LuaTable ITERABLE_METATABLE = createMetatable(Kind.ITERABLE);
+
+    // Declared types of the contents, or null if only the runtime class of each element is known
+    private final @Nullable EClassUse<?> keyUse;
+    private final @Nullable EClassUse<?> valueUse;
+
+    private CollectionView(Object value, LuaTable metatable, EClass<T> clazz, @Nullable EClassUse<?> keyUse, @Nullable EClassUse<?> valueUse) {
+        super(value, metatable, clazz);
+        this.keyUse = keyUse;
+        this.valueUse = valueUse;
+    }
+
+    public static boolean canView(Object value) {
+        return value instanceof Iterable<?> || value instanceof Map<?, ?>;
+    }
+
+    /**
+     * @param use the declared type of the value. Element types are taken from it when it is exactly {@code List},
+     *            {@code Collection}, {@code Iterable} or {@code Map}.
+     */
+    public static CollectionView<?> of(Object value, EClassUse<?> use) {
+        Class<?> declared = use.type().raw();
+        var typeArgs = use.typeVariableValues();
+
+        if (value instanceof Map<?, ?>) {
+            boolean known = declared == Map.class && typeArgs.size() == 2;
+
+            return new CollectionView<>(value, MAP_METATABLE, EClass.fromJava(value.getClass()),
+                known ? typeArgs.get(0).upperBound() : null,
+                known ? typeArgs.get(1).upperBound() : null
+            );
+        } else if (value instanceof Iterable<?>) {
+            boolean known = (declared == List.class || declared == Collection.class || declared == Iterable.class) && typeArgs.size() == 1;
+            return new CollectionView<>(value, value instanceof List<?> ? LIST_METATABLE : ITERABLE_METATABLE, EClass.fromJava(value.getClass()),
+                null,
+                known ? typeArgs.get(0).upperBound() : null
+            );
+        }
+
+        throw new IllegalArgumentException(value.getClass() + " is not a List, Map or Iterable");
+    }
+
+    /**
+     * @return the length {@code #} gives for a collection or map
+     */
+    static LuaValue length(Object value) throws LuaError {
+        if (value instanceof Collection<?> collection) return ValueFactory.valueOf(collection.size());
+        if (value instanceof Map<?, ?> map) return ValueFactory.valueOf(map.size());
+
+        throw new LuaError("attempt to get length of " + value.getClass().getSimpleName());
+    }
+
+    /**
+     * @return the results of {@code pairs} over the contents of a map or iterable
+     */
+    static Varargs pairs(LuaValue self, Object value, @Nullable EClassUse<?> keyUse, @Nullable EClassUse<?> valueUse) {
+        LuaFunction next;
+
+        if (value instanceof Map<?, ?> map) {
+            Iterator<? extends Map.Entry<?, ?>> iterator = map.entrySet().iterator();
+
+            next = new VarArgFunction() {
+                @Override
+                public Varargs invoke(LuaState state, Varargs args) {
+                    if (!iterator.hasNext()) return Constants.NIL;
+
+                    Map.Entry<?, ?> entry = iterator.next();
+                    return ValueFactory.varargsOf(toLua(entry.getKey(), keyUse), toLua(entry.getValue(), valueUse));
+                }
+            };
+        } else {
+            Iterator<?> iterator = ((Iterable<?>) value).iterator();
+
+            next = new VarArgFunction() {
+                private int index = 0;
+
+                @Override
+                public Varargs invoke(LuaState state, Varargs args) {
+                    if (!iterator.hasNext()) return Constants.NIL;
+
+                    return ValueFactory.varargsOf(ValueFactory.valueOf(++index), toLua(iterator.next(), valueUse));
+                }
+            };
+        }
+
+        return ValueFactory.varargsOf(next, self, Constants.NIL);
+    }
+
+    private static LuaValue toLua(Object value, @Nullable EClassUse<?> use) {
+        return use == null ? TypeCoercions.toLuaValue(value) : TypeCoercions.toLuaValue(value, use);
+    }
+
+    private static LuaTable createMetatable(Kind kind) {
+        LuaTable metatable = new LuaTable();
+
+        metatable.rawset("__len", LibFunction.create((state, arg1) -> length(checkView(arg1).instance)));
+
+        VarArgFunction pairs = new VarArgFunction() {
+            @Override
+            public Varargs invoke(LuaState state, Varargs args) throws LuaError {
+                CollectionView<?> view = checkView(args.arg(1));
+                return pairs(view, view.instance, view.keyUse, view.valueUse);
+            }
+        };
+        metatable.rawset("__pairs", pairs);
+        if (kind != Kind.MAP) metatable.rawset("__ipairs", pairs);
+
+        if (kind == Kind.LIST) {
+            metatable.rawset("__index", LibFunction.create((state, arg1, arg2) -> {
+                CollectionView<?> view = checkView(arg1);
+                List<?> list = (List<?>) view.instance;
+                int index = toIndex(arg2, list.size());
+
+                return index < 0 ? Constants.NIL : toLua(list.get(index), view.valueUse);
+            }));
+
+            metatable.rawset("__newindex", LibFunction.create((state, arg1, arg2, arg3) -> {
+                CollectionView<?> view = checkView(arg1);
+                @SuppressWarnings("unchecked") List<Object> list = (List<Object>) view.instance;
+                int index = toIndex(arg2, list.size() + 1);
+
+                if (index < 0) throw new LuaError("list index " + arg2 + " out of bounds for length " + list.size());
+
+                try {
+                    Object element = view.toJava(state, arg3, view.valueUse);
+
+                    if (index == list.size()) list.add(element);
+                    else list.set(index, element);
+                } catch (UnsupportedOperationException | ClassCastException e) {
+                    throw new LuaError(e);
+                }
+
+                return Constants.NIL;
+            }));
+        } else if (kind == Kind.MAP) {
+            metatable.rawset("__index", LibFunction.create((state, arg1, arg2) -> {
+                CollectionView<?> view = checkView(arg1);
+                Object key = view.keyUse == null ? toJavaLoose(arg2) : TypeCoercions.tryToJava(state, arg2, view.keyUse.type());
+
+                return key == TypeCoercions.NO_MATCH ? Constants.NIL : toLua(((Map<?, ?>) view.instance).get(key), view.valueUse);
+            }));
+
+            metatable.rawset("__newindex", LibFunction.create((state, arg1, arg2, arg3) -> {
+                CollectionView<?> view = checkView(arg1);
+                @SuppressWarnings("unchecked") Map<Object, Object> map = (Map<Object, Object>) view.instance;
+                Object key = view.toJava(state, arg2, view.keyUse);
+
+                try {
+                    if (arg3.isNil()) map.remove(key);
+                    else map.put(key, view.toJava(state, arg3, view.valueUse));
+                } catch (UnsupportedOperationException | ClassCastException e) {
+                    throw new LuaError(e);
+                }
+
+                return Constants.NIL;
+            }));
+        }
+
+        return metatable;
+    }
+
+    private Object toJava(LuaState state, LuaValue value, @Nullable EClassUse<?> use) throws LuaError {
+        if (use == null) {
+            Object result = toJavaLoose(value);
+
+            if (result == TypeCoercions.NO_MATCH) throw new LuaError("Couldn't convert " + value + " to java!");
+            return result;
+        }
+
+        try {
+            return TypeCoercions.toJava(state, value, use.type());
+        } catch (InvalidArgumentException e) {
+            throw new LuaError(e);
+        }
+    }
+
+    /**
+     * Converts a value when the Java type it should have isn't known, so it becomes whatever it most obviously is.
+     */
+    private static Object toJavaLoose(LuaValue value) {
+        if (value.isNil()) return null;
+        if (value instanceof LuaUserdata userdata) return userdata.toUserdata();
+        if (value instanceof LuaInteger) return value.toInteger();
+        if (value.type() == Constants.TNUMBER) return value.toDouble();
+        if (value.type() == Constants.TSTRING) return value.toString();
+        if (value.type() == Constants.TBOOLEAN) return value.toBoolean();
+
+        return TypeCoercions.NO_MATCH;
+    }
+
+    private static CollectionView<?> checkView(LuaValue value) throws LuaError {
+        if (value instanceof CollectionView<?> view) return view;
+
+        throw new LuaError("expected collection, got " + value.typeName());
+    }
+
+    /**
+     * @return the Java index for a Lua key, or -1 if the key isn't an index below {@code length}
+     */
+    private static int toIndex(LuaValue key, int length) {
+        if (key.type() != Constants.TNUMBER) return -1;
+
+        double number = key.toDouble();
+        int index = (int) number - 1;
+
+        return index + 1 == number && index >= 0 && index < length ? index : -1;
+    }
+
+    private enum Kind {
+        LIST,
+        MAP,
+        ITERABLE
+    }
+}
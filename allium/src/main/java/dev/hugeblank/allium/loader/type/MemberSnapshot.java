@@ -0,0 +1,101 @@
+package dev.hugeblank.allium.loader.type;
+
+import dev.hugeblank.allium.Allium;
+import dev.hugeblank.allium.loader.type.annotation.LuaWrapped;
+import dev.hugeblank.allium.loader.type.property.PropertyData;
+import dev.hugeblank.allium.util.AnnotationUtils;
+import me.basiqueevangelist.enhancedreflection.api.EClass;
+import me.basiqueevangelist.enhancedreflection.api.EMember;
+import org.squiddev.cobalt.*;
+import org.squiddev.cobalt.function.LuaFunction;
+import org.squiddev.cobalt.function.VarArgFunction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The members {@code pairs()} lists for a class. They're collected the first time the class is iterated, after which
+ * iterating only has to read values.
+ */
+final class MemberSnapshot {
+    private final EClass<?> clazz;
+    private final PropertyLookup lookup;
+    private volatile Entry[] entries;
+
+    MemberSnapshot(EClass<?> clazz, PropertyLookup lookup) {
+        this.clazz = clazz;
+        this.lookup = lookup;
+    }
+
+    /**
+     * @return a {@code next} function for {@code pairs()} that steps through every member of the class
+     */
+    LuaFunction iterate(Object instance, boolean isBound) throws LuaError {
+        Entry[] entries = getEntries();
+
+        return new VarArgFunction() { // next
+            private int index = 0;
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public Varargs invoke(LuaState state, Varargs args) {
+                if (index >= entries.length) return Constants.NIL;
+
+                Entry entry = entries[index++];
+                try {
+                    return ValueFactory.varargsOf(entry.key(), ((PropertyData<Object>) entry.data()).get(
+                            entry.name(),
+                            state,
+                            instance,
+                            isBound
+                    ));
+                } catch (LuaError e) {
+                    // I have no idea how this could happen, so it'll be interesting if we get an issue
+                    // report in the future with it...
+                    Allium.LOGGER.warn("Could not get property data for " + entry.name(), e);
+                    return Constants.NIL;
+                }
+            }
+        };
+    }
+
+    private Entry[] getEntries() throws LuaError {
+        Entry[] entries = this.entries;
+
+        if (entries == null) {
+            List<EMember> members = new ArrayList<>(clazz.methods());
+            members.addAll(clazz.fields());
+
+            boolean wrappedOnly = clazz.hasAnnotation(LuaWrapped.class);
+            List<Entry> collected = new ArrayList<>(members.size());
+            for (EMember member : members) {
+                if (wrappedOnly && !member.hasAnnotation(LuaWrapped.class)) continue;
+
+                String memberName = member.name();
+                if (member.hasAnnotation(LuaWrapped.class)) {
+                    String[] names = AnnotationUtils.findNames(member);
+                    if (names != null && names.length > 0) {
+                        memberName = names[0];
+                    }
+                }
+
+                PropertyData<?> propertyData = lookup.resolve(memberName, member.isStatic());
+
+                if (!Allium.DEVELOPMENT) memberName = Allium.MAPPINGS.getYarn(memberName);
+                collected.add(new Entry(memberName, LuaString.valueOf(memberName), propertyData));
+            }
+
+            entries = collected.toArray(new Entry[0]);
+            this.entries = entries;
+        }
+
+        return entries;
+    }
+
+    @FunctionalInterface
+    interface PropertyLookup {
+        PropertyData<?> resolve(String name, boolean isStatic) throws LuaError;
+    }
+
+    private record Entry(String name, LuaString key, PropertyData<?> data) { }
+}
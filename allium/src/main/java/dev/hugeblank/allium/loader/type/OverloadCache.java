@@ -0,0 +1,114 @@
+package dev.hugeblank.allium.loader.type;
+
+import org.squiddev.cobalt.Constants;
+import org.squiddev.cobalt.LuaInteger;
+import org.squiddev.cobalt.LuaUserdata;
+import org.squiddev.cobalt.LuaValue;
+import org.squiddev.cobalt.Varargs;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Remembers which overload won for a given shape of Lua arguments, so repeat calls can skip straight to it.
+ * <p>
+ * A shape is the argument count plus the Lua type tag of each argument, with numbers split into integers and floats,
+ * strings split by whether they parse as a number, and userdata further narrowed down by the class of the value it
+ * holds. Whether an overload scores and converts only depends on those, so every call with the same shape scores the
+ * same and the overload that won once is still the best one.
+ * Tables are never cached, since whether they convert depends on their contents. A cached overload is only a first
+ * guess: callers still fall back to trying every candidate if it doesn't convert.
+ * <p>
+ * Classes of userdata are only held weakly, since they may be built by a script and the cache outlives it. A shape
+ * whose class has been unloaded can't come up again, so its entry just stops matching.
+ */
+public final class OverloadCache {
+    private static final int MAX_ENTRIES = 16;
+    // Stands in for TNUMBER when the number is an integer, since integer and float parameters score differently
+    private static final int TAG_INTEGER = -2;
+    // Stands in for TSTRING when the string parses as a number, since only then do number parameters accept it
+    private static final int TAG_NUMERIC_STRING = -3;
+
+    private volatile Entry[] entries = new Entry[0];
+    private int nextReplaced = 0;
+
+    /**
+     * @return the index of the overload that last matched this argument shape, or -1 if there is none
+     */
+    public int lookup(Varargs args, int offset) {
+        int count = args.count() - offset + 1;
+
+        for (Entry entry : entries) {
+            if (entry.matches(args, offset, count)) return entry.index;
+        }
+
+        return -1;
+    }
+
+    public void remember(Varargs args, int offset, int index) {
+        int count = Math.max(args.count() - offset + 1, 0);
+        int[] tags = new int[count];
+        @SuppressWarnings("unchecked")
+        WeakReference<Class<?>>[] classes = new WeakReference[count];
+
+        for (int i = 0; i < count; i++) {
+            LuaValue value = args.arg(offset + i);
+            tags[i] = tag(value);
+
+            if (tags[i] == Constants.TTABLE) return;
+
+            Class<?> klass = userdataClass(value);
+            if (klass != null) classes[i] = new WeakReference<>(klass);
+        }
+
+        synchronized (this) {
+            Entry[] current = entries;
+            Entry[] updated;
+
+            if (current.length < MAX_ENTRIES) {
+                updated = new Entry[current.length + 1];
+                System.arraycopy(current, 0, updated, 0, current.length);
+                updated[current.length] = new Entry(tags, classes, index);
+            } else {
+                updated = current.clone();
+                updated[nextReplaced] = new Entry(tags, classes, index);
+                nextReplaced = (nextReplaced + 1) % MAX_ENTRIES;
+            }
+
+            entries = updated;
+        }
+    }
+
+    private static int tag(LuaValue value) {
+        if (value instanceof LuaInteger) return TAG_INTEGER;
+
+        int type = value.type();
+        return type == Constants.TSTRING && !Double.isNaN(value.toNumber()) ? TAG_NUMERIC_STRING : type;
+    }
+
+    private static Class<?> userdataClass(LuaValue value) {
+        if (value instanceof LuaUserdata userdata) {
+            Object instance = userdata.toUserdata();
+            return instance == null ? null : instance.getClass();
+        }
+
+        return null;
+    }
+
+    private record Entry(int[] tags, WeakReference<Class<?>>[] classes, int index) {
+        boolean matches(Varargs args, int offset, int count) {
+            if (count != tags.length) return false;
+
+            for (int i = 0; i < count; i++) {
+                LuaValue value = args.arg(offset + i);
+
+                if (tag(value) != tags[i]) return false;
+                if (classes[i] != null) {
+                    Class<?> klass = classes[i].get();
+                    if (klass == null || klass != userdataClass(value)) return false;
+                }
+            }
+
+            return true;
+        }
+    }
+}
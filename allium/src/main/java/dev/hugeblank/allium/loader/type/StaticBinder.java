@@ -1,17 +1,17 @@
 package dev.hugeblank.allium.loader.type;
 
-import dev.hugeblank.allium.Allium;
 import dev.hugeblank.allium.loader.type.coercion.TypeCoercions;
+import dev.hugeblank.allium.loader.type.coercion.TypeCoercions.CompiledConverter;
+import dev.hugeblank.allium.loader.type.invoker.CallTarget;
+import dev.hugeblank.allium.util.ArgumentPlan;
 import dev.hugeblank.allium.loader.type.property.PropertyData;
 import dev.hugeblank.allium.util.AnnotationUtils;
 import dev.hugeblank.allium.util.ArgumentUtils;
 import dev.hugeblank.allium.util.JavaHelpers;
 import me.basiqueevangelist.enhancedreflection.api.EClass;
-import me.basiqueevangelist.enhancedreflection.api.EMember;
 import me.basiqueevangelist.enhancedreflection.api.EMethod;
 import me.basiqueevangelist.enhancedreflection.api.typeuse.EClassUse;
 import dev.hugeblank.allium.loader.type.annotation.LuaIndex;
-import dev.hugeblank.allium.loader.type.annotation.LuaWrapped;
 import dev.hugeblank.allium.loader.type.property.EmptyData;
 import dev.hugeblank.allium.loader.type.property.PropertyResolver;
 import org.squiddev.cobalt.*;
@@ -19,68 +19,52 @@ import org.squiddev.cobalt.function.*;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
-import java.util.stream.Stream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public final class StaticBinder {
+    // Bindings hold no per-script state, so one per class is shared by everything that binds it. Their metatables are
+    // hidden from scripts (see createBinding), so no script can change them for the others. Keyed by raw class first,
+    // so that generated classes can still be unloaded.
+    private static final ClassValue<ConcurrentMap<EClass<?>, LuaUserdata>> BINDINGS = new ClassValue<>() {
+        @Override
+        protected ConcurrentMap<EClass<?>, LuaUserdata> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
     private StaticBinder() {
 
     }
 
     public static LuaUserdata bindClass(EClass<?> clazz) {
-        Map<String, PropertyData<?>> cachedProperties = new HashMap<>();
+        return BINDINGS.get(clazz.raw()).computeIfAbsent(clazz, StaticBinder::createBinding);
+    }
+
+    private static LuaUserdata createBinding(EClass<?> clazz) {
+        Map<String, PropertyData<?>> cachedProperties = new ConcurrentHashMap<>();
+        Map<List<EClass<?>>, LuaUserdata> instantiations = new ConcurrentHashMap<>();
         LuaFunction getClassFunc = createGetClassFunction(clazz);
         LuaTable metatable = new LuaTable();
         EMethod indexImpl = clazz.methods().stream().filter(x -> x.isStatic() && x.hasAnnotation(LuaIndex.class)).findAny().orElse(null);
+        ArgumentPlan indexPlan = indexImpl == null ? null : ArgumentPlan.of(indexImpl.parameters());
+        List<CallTarget> constructors = new ArrayList<>();
+        for (var constructor : clazz.constructors()) {
+            if (!AnnotationUtils.isHiddenFromLua(constructor)) constructors.add(CallTarget.of(clazz, constructor));
+        }
+        OverloadCache constructorCache = new OverloadCache();
 
-        metatable.rawset("__pairs", LibFunction.create((state) -> {
-            Stream.Builder<EMember> memberBuilder = Stream.builder();
-            clazz.methods().forEach(memberBuilder);
-            clazz.fields().forEach(memberBuilder);
-            Stream<Varargs> valueStream = memberBuilder.build().filter((member)->
-                    !clazz.hasAnnotation(LuaWrapped.class) ||
-                            (
-                                    clazz.hasAnnotation(LuaWrapped.class) &&
-                                            member.hasAnnotation(LuaWrapped.class)
-                            )
-            ).map((member)-> {
-                String memberName = member.name();
-                if (member.hasAnnotation(LuaWrapped.class)) {
-                    String[] names = AnnotationUtils.findNames(member);
-                    if (names != null && names.length > 0) {
-                        memberName = names[0];
-                    }
-                }
-                PropertyData<?> propertyData = cachedProperties.get(memberName);
-
-                if (propertyData == null) { // caching
-                    propertyData = PropertyResolver.resolveProperty(clazz, memberName, member.isStatic());
-                    cachedProperties.put(memberName, propertyData);
-                }
+        MemberSnapshot members = new MemberSnapshot(clazz, (name, isStatic) -> {
+            PropertyData<?> propertyData = cachedProperties.get(name);
 
-                if (!Allium.DEVELOPMENT) memberName = Allium.MAPPINGS.getYarn(memberName);
-                try {
-                    return ValueFactory.varargsOf(LuaString.valueOf(memberName), propertyData.get(
-                            memberName,
-                            state,
-                            null,
-                            false
-                    ));
-                } catch (LuaError e) {
-                    // I have no idea how this could happen, so it'll be interesting if we get an issue
-                    // report in the future with it...
-                    Allium.LOGGER.warn("Could not get property data for " + memberName, e);
-                    return Constants.NIL;
-                }
-            });
+            if (propertyData == null) { // caching
+                propertyData = PropertyResolver.resolveProperty(clazz, name, isStatic);
+                cachedProperties.put(name, propertyData);
+            }
 
-            Iterator<Varargs> iterator = valueStream.iterator();
-            return new VarArgFunction() { // next
-                public Varargs invoke(LuaState state, Varargs varargs) throws LuaError, UnwindThrowable {
-                    if (!iterator.hasNext()) return Constants.NIL;
-                    return iterator.next();
-                }
-            };
-        }));
+            return propertyData;
+        });
+        metatable.rawset("__pairs", LibFunction.create((state) -> members.iterate(null, false)));
 
         metatable.rawset("__index", LibFunction.create((state, arg1, arg2) -> {
             if (arg2.isString()) {
@@ -103,32 +87,29 @@ public final class StaticBinder {
             }
 
             if (indexImpl != null) {
-                var parameters = indexImpl.parameters();
                 try {
-                    var jargs = ArgumentUtils.toJavaArguments(state, arg2, 1, parameters);
-
-                    if (jargs.length == parameters.size()) {
-                        try {
-                            var instance = TypeCoercions.toJava(state, arg1, clazz);
-                            EClassUse<?> ret = indexImpl.returnTypeUse().upperBound();
-                            Object out = indexImpl.invoke(instance, jargs);
-                            // If out is null, we can assume the index is nil
-                            if (out == null) throw new InvalidArgumentException();
-                            return TypeCoercions.toLuaValue(out, ret);
-                        } catch (IllegalAccessException e) {
-                            throw new LuaError(e);
-                        } catch (InvocationTargetException e) {
-                            var target = e.getTargetException();
-
-                            if (target instanceof LuaError err) {
-                                throw err;
-                            } else if (target instanceof IndexOutOfBoundsException) {
-                                // Continue.
-                            } else {
-                                throw new LuaError(target);
-                            }
-                        } catch (InvalidArgumentException ignore) {}
-                    }
+                    var jargs = indexPlan.toJavaArguments(state, arg2, 1);
+
+                    try {
+                        var instance = TypeCoercions.toJava(state, arg1, clazz);
+                        EClassUse<?> ret = indexImpl.returnTypeUse().upperBound();
+                        Object out = indexImpl.invoke(instance, jargs);
+                        // If out is null, we can assume the index is nil
+                        if (out == null) throw new InvalidArgumentException();
+                        return TypeCoercions.toLuaValue(out, ret);
+                    } catch (IllegalAccessException e) {
+                        throw new LuaError(e);
+                    } catch (InvocationTargetException e) {
+                        var target = e.getTargetException();
+
+                        if (target instanceof LuaError err) {
+                            throw err;
+                        } else if (target instanceof IndexOutOfBoundsException) {
+                            // Continue.
+                        } else {
+                            throw new LuaError(target);
+                        }
+                    } catch (InvalidArgumentException ignore) {}
                 } catch (InvalidArgumentException | IllegalArgumentException e) {
                     // Continue.
                 }
@@ -142,11 +123,18 @@ public final class StaticBinder {
                     typeArgs[i] = JavaHelpers.asClass(table.rawget(i + 1));
                 }
 
+                List<EClass<?>> typeArgList = List.of(typeArgs);
+                LuaUserdata instantiation = instantiations.get(typeArgList);
+                if (instantiation != null) return instantiation;
+
                 try {
-                    return bindClass(clazz.instantiateWith(List.of(typeArgs)));
+                    instantiation = bindClass(clazz.instantiateWith(typeArgList));
                 } catch (IllegalArgumentException e) {
                     throw new LuaError(e);
                 }
+
+                instantiations.put(typeArgList, instantiation);
+                return instantiation;
             }
 
             return Constants.NIL;
@@ -173,37 +161,53 @@ public final class StaticBinder {
             public Varargs invoke(LuaState state, Varargs args) throws LuaError {
                 return createInstance(
                         clazz,
+                        constructors,
+                        constructorCache,
                         state,
                         args.subargs(2)
                 );
             }
         });
 
+        // getmetatable gives scripts this instead of the shared table, and setmetatable refuses to replace it
+        metatable.rawset("__metatable", Constants.FALSE);
+
         return new LuaUserdata(clazz, metatable);
     }
 
-    private static Varargs createInstance(EClass<?> clazz, LuaState state, Varargs args) throws LuaError {
-        List<String> paramList = new ArrayList<>();
-        for (var constructor : clazz.constructors()) {
-            if (AnnotationUtils.isHiddenFromLua(constructor)) continue;
+    private static Varargs createInstance(EClass<?> clazz, List<CallTarget> constructors, OverloadCache constructorCache, LuaState state, Varargs args) throws LuaError {
+        // Try whichever constructor last won for arguments shaped like these first.
+        int cached = constructorCache.lookup(args, 1);
+        if (cached >= 0) {
+            CallTarget constructor = constructors.get(cached);
+            var jargs = constructor.tryToJavaArguments(state, args, 1);
 
-            var parameters = constructor.parameters();
-            try {
-                var jargs = ArgumentUtils.toJavaArguments(state, args, 1, parameters);
+            if (jargs != null) return constructor.invoke(null, jargs);
+        }
 
-                try { // Get the return type, invoke method, cast returned value, cry.
-                    EClassUse<?> ret = (EClassUse<?>) constructor.receiverTypeUse();
+        // Constructors have no priorities, so the best scoring one is tried first, and ties go to declaration order.
+        int[] scores = new int[constructors.size()];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = i == cached ? CompiledConverter.SCORE_NONE : constructors.get(i).plan().score(args, 1);
+        }
 
-                    if (ret == null) ret = clazz.asEmptyUse();
+        while (true) {
+            int best = -1;
+            for (int i = 0; i < scores.length; i++) {
+                if (scores[i] != CompiledConverter.SCORE_NONE && (best == -1 || scores[i] > scores[best])) best = i;
+            }
 
-                    Object out = constructor.invoke(jargs);
-                    return TypeCoercions.toLuaValue(out, ret);
-                } catch (IllegalAccessException | InvocationTargetException | InstantiationException e) {
-                    throw new LuaError(e);
-                }
-            } catch (InvalidArgumentException e) {
-                paramList.add(ArgumentUtils.paramsToPrettyString(parameters));
+            if (best == -1) break;
+
+            CallTarget constructor = constructors.get(best);
+            var jargs = constructor.tryToJavaArguments(state, args, 1);
+
+            if (jargs != null) {
+                constructorCache.remember(args, 1, best);
+                return constructor.invoke(null, jargs);
             }
+
+            scores[best] = CompiledConverter.SCORE_NONE;
         }
 
         StringBuilder error = new StringBuilder("Could not find parameter match for called constructor " +
@@ -211,8 +215,8 @@ public final class StaticBinder {
                 "\nThe following are correct argument types:\n"
         );
 
-        for (String headers : paramList) {
-            error.append(headers).append("\n");
+        for (CallTarget constructor : constructors) {
+            error.append(ArgumentUtils.paramsToPrettyString(constructor.plan().parameters())).append("\n");
         }
 
         throw new LuaError(error.toString());
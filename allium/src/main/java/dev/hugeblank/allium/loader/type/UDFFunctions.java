@@ -1,18 +1,18 @@
 package dev.hugeblank.allium.loader.type;
 
-import dev.hugeblank.allium.loader.type.coercion.TypeCoercions;
+import dev.hugeblank.allium.loader.type.coercion.TypeCoercions.CompiledConverter;
+import dev.hugeblank.allium.loader.type.invoker.CallTarget;
+import dev.hugeblank.allium.loader.type.property.MethodSorter;
 import dev.hugeblank.allium.util.ArgumentUtils;
 import dev.hugeblank.allium.util.JavaHelpers;
 import me.basiqueevangelist.enhancedreflection.api.EClass;
 import me.basiqueevangelist.enhancedreflection.api.EMethod;
-import me.basiqueevangelist.enhancedreflection.api.typeuse.EClassUse;
+import org.jetbrains.annotations.Nullable;
 import org.squiddev.cobalt.LuaError;
 import org.squiddev.cobalt.LuaState;
 import org.squiddev.cobalt.Varargs;
 import org.squiddev.cobalt.function.VarArgFunction;
 
-import java.lang.reflect.InvocationTargetException;
-import java.util.ArrayList;
 import java.util.List;
 
 public final class UDFFunctions<T> extends VarArgFunction {
@@ -21,22 +21,38 @@ public final class UDFFunctions<T> extends VarArgFunction {
     private final String name;
     private final T boundReceiver;
     private final boolean isStatic;
+    private final CallTarget[] targets;
+    private final @Nullable OverloadCache overloadCache;
+    private int[] groupEnds;
 
     public UDFFunctions(EClass<T> clazz, List<EMethod> matches, String name, T boundReceiver, boolean isStatic) {
+        this(clazz, matches, name, boundReceiver, isStatic, null);
+    }
+
+    public UDFFunctions(EClass<T> clazz, List<EMethod> matches, String name, T boundReceiver, boolean isStatic, @Nullable OverloadCache overloadCache) {
+        this(clazz, matches, name, boundReceiver, isStatic, overloadCache, new CallTarget[matches.size()]);
+    }
+
+    /**
+     * @param targets call targets for {@code matches}, filled in as they're needed. May be shared between functions
+     *                with the same matches, so that they only get built once.
+     */
+    public UDFFunctions(EClass<T> clazz, List<EMethod> matches, String name, T boundReceiver, boolean isStatic, @Nullable OverloadCache overloadCache, CallTarget[] targets) {
         this.clazz = clazz;
         this.matches = matches;
         this.name = name;
         this.boundReceiver = boundReceiver;
         this.isStatic = isStatic;
+        this.targets = targets;
+        this.overloadCache = overloadCache;
     }
 
     @Override
     public Varargs invoke(LuaState state, Varargs args) throws LuaError {
-        List<String> paramList = new ArrayList<>(); // String for displaying errors more smartly
-        StringBuilder error = new StringBuilder("Could not find parameter match for called function \"" +
-            name + "\" for \"" + clazz.name() + "\"" +
-            "\nThe following are correct argument types:\n"
-        );
+        Object[] jargs = null;
+        CallTarget target = null;
+        T instance;
+        int offset;
 
         try {
 //            final T instance;
@@ -51,48 +67,112 @@ public final class UDFFunctions<T> extends VarArgFunction {
 //            } else {
 //                throw new LuaError("Invocation has no instance"); // This should never happen.
 //            }
-            T instance = boundReceiver != null || isStatic ? boundReceiver : JavaHelpers.checkUserdata(args.arg(1), clazz.raw());
-            for (EMethod method : matches) { // For each matched method from the index call
-                var parameters = method.parameters();
-                try {
-                    var jargs = ArgumentUtils.toJavaArguments(state, args, boundReceiver == null && !isStatic ? 2 : 1, parameters);
-
-                    if (jargs.length == parameters.size()) { // Found a match!
-                        try { // Get the return type, invoke method, cast returned value, cry.
-                            EClassUse<?> ret = method.returnTypeUse().upperBound();
-                            // Some public methods are "inaccessible" despite being public. setAccessible coerces that.
-                            method.raw().setAccessible(true);
-                            Object out = method.invoke(instance, jargs);
-                            if (ret.type().raw() == Varargs.class)
-                                return (Varargs) out;
-                            else
-                                return TypeCoercions.toLuaValue(out, ret);
-                        } catch (IllegalAccessException e) {
-                            throw new LuaError(e);
-                        } catch (InvocationTargetException e) {
-                            if (e.getTargetException() instanceof LuaError err)
-                                throw err;
-
-                            throw new LuaError(e.getTargetException());
-                        }
-                    }
-                } catch (InvalidArgumentException e) {
-                    paramList.add(ArgumentUtils.paramsToPrettyString(parameters));
-                }
+            instance = boundReceiver != null || isStatic ? boundReceiver : JavaHelpers.checkUserdata(args.arg(1), clazz.raw());
+            offset = boundReceiver == null && !isStatic ? 2 : 1;
+
+            // Try whichever overload last won for arguments shaped like these first.
+            int cached = overloadCache == null ? -1 : overloadCache.lookup(args, offset);
+            if (cached >= 0) {
+                target = getTarget(cached);
+                jargs = target.tryToJavaArguments(state, args, offset);
             }
-        } catch (Exception e) {
-            if (e instanceof LuaError) {
-                throw e;
-            } else {
-                e.printStackTrace();
-                error = new StringBuilder(e.toString());
+
+            if (jargs == null) {
+                Match match = findMatch(state, args, offset, cached);
+
+                if (match != null) {
+                    target = getTarget(match.index());
+                    jargs = match.arguments();
+
+                    if (overloadCache != null) overloadCache.remember(args, offset, match.index());
+                }
             }
+        } catch (LuaError e) {
+            throw e;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            throw new LuaError(e.toString());
         }
 
-        for (String headers : paramList) {
-            error.append(headers).append("\n");
+        if (jargs != null) return target.invoke(instance, jargs);
+
+        StringBuilder error = new StringBuilder("Could not find parameter match for called function \"" +
+            name + "\" for \"" + clazz.name() + "\"" +
+            "\nThe following are correct argument types:\n"
+        );
+
+        for (int i = 0; i < matches.size(); i++) {
+            error.append(ArgumentUtils.paramsToPrettyString(getTarget(i).plan().parameters())).append("\n");
         }
 
         throw new LuaError(error.toString());
     }
+
+    /**
+     * Picks the overload to call by scoring every candidate. Overloads the {@link MethodSorter} ranks equally are
+     * compared by score, and the best one that actually converts wins. Lower ranked overloads are only considered once
+     * every higher ranked one has failed.
+     */
+    private @Nullable Match findMatch(LuaState state, Varargs args, int offset, int skip) throws LuaError {
+        int[] groupEnds = getGroupEnds();
+        int[] scores = new int[matches.size()];
+
+        for (int start = 0; start < scores.length; start = groupEnds[start]) {
+            int end = groupEnds[start];
+
+            for (int i = start; i < end; i++) {
+                scores[i] = i == skip ? CompiledConverter.SCORE_NONE : getTarget(i).plan().score(args, offset);
+            }
+
+            while (true) {
+                int best = -1;
+                for (int i = start; i < end; i++) {
+                    if (scores[i] != CompiledConverter.SCORE_NONE && (best == -1 || scores[i] > scores[best])) best = i;
+                }
+
+                if (best == -1) break;
+
+                Object[] jargs = getTarget(best).tryToJavaArguments(state, args, offset);
+                if (jargs != null) return new Match(best, jargs);
+
+                scores[best] = CompiledConverter.SCORE_NONE;
+            }
+        }
+
+        return null;
+    }
+
+    private int[] getGroupEnds() {
+        int[] groupEnds = this.groupEnds;
+
+        if (groupEnds == null) {
+            // For every overload, the index just past the last one the sorter considers equal to it
+            groupEnds = new int[matches.size()];
+
+            for (int start = 0; start < groupEnds.length; ) {
+                int end = start + 1;
+                while (end < groupEnds.length && MethodSorter.INSTANCE.compare(matches.get(start), matches.get(end)) == 0) end++;
+
+                for (int i = start; i < end; i++) groupEnds[i] = end;
+                start = end;
+            }
+
+            this.groupEnds = groupEnds;
+        }
+
+        return groupEnds;
+    }
+
+    private CallTarget getTarget(int index) {
+        CallTarget target = targets[index];
+
+        if (target == null) {
+            target = CallTarget.of(matches.get(index));
+            targets[index] = target;
+        }
+
+        return target;
+    }
+
+    private record Match(int index, Object[] arguments) { }
 }
@@ -4,51 +4,143 @@
 // If someone wants to SCP this, please by all means do so.
 package dev.hugeblank.allium.loader.type;
 
-import dev.hugeblank.allium.Allium;
 import dev.hugeblank.allium.loader.type.coercion.TypeCoercions;
+import dev.hugeblank.allium.loader.type.property.MethodData;
 import dev.hugeblank.allium.loader.type.property.PropertyData;
 import dev.hugeblank.allium.util.AnnotationUtils;
-import dev.hugeblank.allium.util.ArgumentUtils;
+import dev.hugeblank.allium.util.ArgumentPlan;
 import dev.hugeblank.allium.util.JavaHelpers;
 import me.basiqueevangelist.enhancedreflection.api.EClass;
-import me.basiqueevangelist.enhancedreflection.api.EMember;
 import me.basiqueevangelist.enhancedreflection.api.EMethod;
 import me.basiqueevangelist.enhancedreflection.api.typeuse.EClassUse;
 import dev.hugeblank.allium.loader.type.annotation.LuaIndex;
-import dev.hugeblank.allium.loader.type.annotation.LuaWrapped;
 import dev.hugeblank.allium.loader.type.property.EmptyData;
 import dev.hugeblank.allium.loader.type.property.PropertyResolver;
 import org.apache.commons.lang3.ArrayUtils;
 import org.jetbrains.annotations.Nullable;
 import org.squiddev.cobalt.*;
+import org.squiddev.cobalt.function.LibFunction;
 import org.squiddev.cobalt.function.VarArgFunction;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.stream.Stream;
 
 public class UserdataFactory<T> {
-    private static final ConcurrentMap<EClass<?>, UserdataFactory<?>> FACTORIES = new ConcurrentHashMap<>();
-    private final Map<String, PropertyData<? super T>> cachedProperties = new HashMap<>();
+    // Whether an object crossing into Lua more than once gets the same userdata back each time
+    private static final boolean REUSE_USERDATA = Boolean.parseBoolean(System.getProperty("allium.reuseUserdata", "true"));
+    // Keyed by raw class first, so that caching a factory doesn't keep its class from being unloaded
+    private static final ClassValue<ConcurrentMap<EClass<?>, UserdataFactory<?>>> FACTORIES = new ClassValue<>() {
+        @Override
+        protected ConcurrentMap<EClass<?>, UserdataFactory<?>> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
     private final EClass<T> clazz;
+    // Every property of the class, resolved when the factory is created. Never modified afterwards.
+    private final Map<LuaString, IndexedProperty<T>> properties;
+    // Names outside the index, including ones that resolved to nothing.
+    private final ConcurrentMap<LuaString, IndexedProperty<T>> lateProperties = new ConcurrentHashMap<>();
+    // Unbound methods don't depend on the instance, so they can be looked up straight from a table.
+    private final LuaTable methodTable;
+    private final MemberSnapshot members;
     private final LuaTable metatable;
     private @Nullable LuaTable boundMetatable;
+    // Wrappers handed out so far, so the same object always crosses into Lua as the same userdata.
+    // Null when reuse is turned off with -Dallium.reuseUserdata=false.
+    private final @Nullable WeakIdentityCache<AlliumUserdata<T>> instances = REUSE_USERDATA ? new WeakIdentityCache<>() : null;
+    private final @Nullable WeakIdentityCache<AlliumUserdata<T>> boundInstances = REUSE_USERDATA ? new WeakIdentityCache<>() : null;
     private final @Nullable EMethod indexImpl;
     private final @Nullable EMethod newIndexImpl;
+    private final @Nullable ArgumentPlan indexPlan;
+    private final @Nullable ArgumentPlan newIndexPlan;
 
     protected UserdataFactory(EClass<T> clazz) {
         this.clazz = clazz;
+        this.properties = indexProperties(clazz);
         this.indexImpl = tryFindOp(LuaIndex.class, 1, "get");
         this.newIndexImpl = tryFindOp(null, 2, "set", "put");
+        this.indexPlan = indexImpl == null ? null : ArgumentPlan.of(indexImpl.parameters());
+        this.newIndexPlan = newIndexImpl == null ? null : ArgumentPlan.of(newIndexImpl.parameters());
+        this.methodTable = createMethodTable();
+        this.members = new MemberSnapshot(clazz, (name, isStatic) -> getProperty(LuaString.valueOf(name)).data());
         this.metatable = createMetatable(false);
     }
 
+    private LuaTable createMethodTable() {
+        LuaTable table = new LuaTable();
+
+        properties.forEach((name, property) -> {
+            if (property.data() instanceof MethodData<?> method) table.rawset(name, method.unboundFunction);
+        });
+
+        // When this is used as __index itself, lookups that miss the table end up here. Lua passes the table rather
+        // than the userdata, which is fine since nothing that needs the instance can resolve then (see hasOnlyMethods).
+        LuaTable fallback = new LuaTable();
+        fallback.rawset("__index", LibFunction.create((state, arg1, arg2) -> {
+            if (arg2.isString() && arg2.checkString().equals("allium_java_class"))
+                return UserdataFactory.of(EClass.fromJava(EClass.class)).create(clazz);
+
+            // Names left out of the index still resolve the same way they would through the full __index
+            if (getProperty(arg2).data() instanceof MethodData<?> method) return method.unboundFunction;
+
+            return Constants.NIL;
+        }));
+        table.setMetatable(null, fallback); // Tables keep their own metatable, no state needed
+
+        return table;
+    }
+
+    /**
+     * @return whether every property is a method, so the method table alone can stand in for {@code __index}
+     */
+    private boolean hasOnlyMethods() {
+        if (indexImpl != null) return false;
+
+        for (IndexedProperty<T> property : properties.values()) {
+            if (!(property.data() instanceof MethodData<?>)) return false;
+            // Getters can also be found under names the index leaves out, and those need the instance
+            if (property.name().startsWith("get")) return false;
+        }
+
+        return true;
+    }
+
+    private boolean isContainer() {
+        return Iterable.class.isAssignableFrom(clazz.raw()) || Map.class.isAssignableFrom(clazz.raw());
+    }
+
+    private static <T> Map<LuaString, IndexedProperty<T>> indexProperties(EClass<T> clazz) {
+        Map<LuaString, IndexedProperty<T>> properties = new HashMap<>();
+
+        PropertyResolver.resolveProperties(clazz, false).forEach((name, property) ->
+            properties.put(LuaString.valueOf(name), new IndexedProperty<>(name, property))
+        );
+
+        return Map.copyOf(properties);
+    }
+
+    private IndexedProperty<T> getProperty(LuaValue key) throws LuaError {
+        LuaString name = key instanceof LuaString string ? string : LuaString.valueOf(key.checkString());
+        IndexedProperty<T> property = properties.get(name);
+
+        if (property == null) property = lateProperties.get(name);
+
+        if (property == null) {
+            String javaName = name.toString();
+            property = new IndexedProperty<>(javaName, PropertyResolver.resolveProperty(clazz, javaName, false));
+
+            // Copied, since the key we got might be a view into a bigger string.
+            lateProperties.putIfAbsent(LuaString.valueOf(javaName), property);
+        }
+
+        return property;
+    }
+
     private @Nullable EMethod tryFindOp(@Nullable Class<? extends Annotation> annotation, int minParams, String... specialNames) {
         EMethod method = null;
 
@@ -93,114 +185,86 @@ public class UserdataFactory<T> {
             }
         });
 
-        metatable.rawset("__pairs", new VarArgFunction() {
-            // Technically, pairs is kinda cringe. In order to properly deliver all key-value pairs, we have to parse
-            // the ENTIRE class. At least we cache everything along the way? Still not ideal.
+        if (isContainer()) {
+            // Iterate over what's in the container, rather than over the members of its class
+            VarArgFunction pairs = new VarArgFunction() {
+                @Override
+                public Varargs invoke(LuaState state, Varargs args) throws LuaError {
+                    return CollectionView.pairs(args.arg(1), JavaHelpers.checkUserdata(args.arg(1), clazz.raw()), null, null);
+                }
+            };
+
+            // No __ipairs, since numeric keys still go through the 0-based get operator. Views are what index from 1.
+            metatable.rawset("__pairs", pairs);
+            metatable.rawset("__len", LibFunction.create((state, arg1) -> CollectionView.length(JavaHelpers.checkUserdata(arg1, clazz.raw()))));
+        } else metatable.rawset("__pairs", new VarArgFunction() {
             @Override
             public Varargs invoke(LuaState state, Varargs args) throws LuaError {
-                Stream.Builder<EMember> memberBuilder = Stream.builder();
-                clazz.methods().forEach(memberBuilder);
-                clazz.fields().forEach(memberBuilder);
                 try {
                     var instance = clazz.cast(TypeCoercions.toJava(state, args.arg(1), clazz));
-                    Stream<Varargs> valueStream = memberBuilder.build()
-                            .filter((member)->
-                                    !clazz.hasAnnotation(LuaWrapped.class) ||
-                                            (
-                                                    clazz.hasAnnotation(LuaWrapped.class) &&
-                                                            member.hasAnnotation(LuaWrapped.class)
-                                            )
-                            )
-                            .map((member)-> {
-                                String memberName = member.name();
-                                if (member.hasAnnotation(LuaWrapped.class)) {
-                                    String[] names = AnnotationUtils.findNames(member);
-                                    if (names != null && names.length > 0) {
-                                        memberName = names[0];
-                                    }
-                                }
-                                PropertyData<? super T> propertyData = cachedProperties.get(memberName);
-
-                                if (propertyData == null) { // caching
-                                    propertyData = PropertyResolver.resolveProperty(clazz, memberName, member.isStatic());
-                                    cachedProperties.put(memberName, propertyData);
-                                }
-
-                                if (!Allium.DEVELOPMENT) memberName = Allium.MAPPINGS.getYarn(memberName);
-                                try {
-                                    return ValueFactory.varargsOf(LuaString.valueOf(memberName), propertyData.get(
-                                            memberName,
-                                            state,
-                                            isBound ? instance : null,
-                                            isBound
-                                    ));
-                                } catch (LuaError e) {
-                                    // I have no idea how this could happen, so it'll be interesting if we get an issue
-                                    // report in the future with it...
-                                    Allium.LOGGER.warn("Could not get property data for " + memberName, e);
-                                    return Constants.NIL;
-                                }
-                            });
-
-                    Iterator<Varargs> iterator = valueStream.iterator();
-                    return new VarArgFunction() { // next
-                        public Varargs invoke(LuaState state, Varargs varargs) {
-                            if (!iterator.hasNext()) return Constants.NIL;
-                            return iterator.next();
-                        }
-                    };
+                    return members.iterate(isBound ? instance : null, isBound);
                 } catch (InvalidArgumentException e) {
                     throw new LuaError(e);
                 }
             }
         });
 
-        metatable.rawset("__index", new VarArgFunction() {
+        if (!isBound && hasOnlyMethods()) {
+            metatable.rawset("__index", methodTable);
+        } else metatable.rawset("__index", new VarArgFunction() {
 
             @Override
             public LuaValue invoke(LuaState state, Varargs args) throws LuaError {
-                String name = args.arg(2).checkString(); // mapped name
+                if (!isBound) {
+                    LuaValue method = methodTable.rawget(args.arg(2));
 
-                if (name.equals("allium_java_class")) {
-                    return UserdataFactory.of(EClass.fromJava(EClass.class)).create(clazz);
+                    if (!method.isNil()) return method;
                 }
 
-                PropertyData<? super T> cachedProperty = cachedProperties.get(name);
-
-                if (cachedProperty == null) {
-                    cachedProperty = PropertyResolver.resolveProperty(clazz, name, false);
+                IndexedProperty<T> property = getProperty(args.arg(2)); // mapped name
+                String name = property.name();
+                PropertyData<? super T> cachedProperty = property.data();
 
-                    cachedProperties.put(name, cachedProperty);
+                if (name.equals("allium_java_class")) {
+                    return UserdataFactory.of(EClass.fromJava(EClass.class)).create(clazz);
                 }
 
                 if (cachedProperty == EmptyData.INSTANCE && indexImpl != null) {
-                    var parameters = indexImpl.parameters();
                     try {
-                        var jargs = ArgumentUtils.toJavaArguments(state, args.arg(2), 1, parameters);
-
-                        if (jargs.length == parameters.size()) {
-                            try {
-                                var instance = TypeCoercions.toJava(state, args.arg(1), clazz);
-                                EClassUse<?> ret = indexImpl.returnTypeUse().upperBound();
-                                Object out = indexImpl.invoke(instance, jargs);
-                                return TypeCoercions.toLuaValue(out, ret);
-                            } catch (IndexOutOfBoundsException | InvalidArgumentException ignored) {
-                            } catch (IllegalAccessException e) {
-                                throw new LuaError(e);
-                            } catch (InvocationTargetException e) {
-                                var target = e.getTargetException();
-
-                                if (target instanceof LuaError err) {
-                                    throw err;
-                                } else {
-                                    throw new LuaError(target);
-                                }
+                        var jargs = indexPlan.toJavaArguments(state, args.arg(2), 1);
+
+                        try {
+                            var instance = TypeCoercions.toJava(state, args.arg(1), clazz);
+                            EClassUse<?> ret = indexImpl.returnTypeUse().upperBound();
+                            Object out = indexImpl.invoke(instance, jargs);
+                            return TypeCoercions.toLuaValue(out, ret);
+                        } catch (IndexOutOfBoundsException | InvalidArgumentException ignored) {
+                        } catch (IllegalAccessException e) {
+                            throw new LuaError(e);
+                        } catch (InvocationTargetException e) {
+                            var target = e.getTargetException();
+
+                            if (target instanceof LuaError err) {
+                                throw err;
+                            } else {
+                                throw new LuaError(target);
                             }
                         }
                     } catch (InvalidArgumentException | IllegalArgumentException e) {
                         // Continue.
                     }
                 }
+
+                if (isBound && cachedProperty instanceof MethodData<?> && args.arg(1) instanceof AlliumUserdata<?> userdata) {
+                    LuaValue method = userdata.getBoundMethod(name);
+
+                    if (method == null) {
+                        method = userdata.putBoundMethod(name, cachedProperty.get(name, state, JavaHelpers.checkUserdata(userdata, clazz.raw()), true));
+                    }
+
+                    return method;
+                }
+
                 return cachedProperty.get(name, state, JavaHelpers.checkUserdata(args.arg(1), clazz.raw()), isBound);
             }
         });
@@ -208,34 +272,25 @@ public class UserdataFactory<T> {
         metatable.rawset("__newindex", new VarArgFunction() {
             @Override
             public LuaValue invoke(LuaState state, Varargs args) throws LuaError {
-                String name = args.arg(2).checkString(); // mapped name
-
-                PropertyData<? super T> cachedProperty = cachedProperties.get(name);
-
-                if (cachedProperty == null) {
-                    cachedProperty = PropertyResolver.resolveProperty(clazz, name, false);
-
-                    cachedProperties.put(name, cachedProperty);
-                }
+                IndexedProperty<T> property = getProperty(args.arg(2)); // mapped name
+                String name = property.name();
+                PropertyData<? super T> cachedProperty = property.data();
 
                 if (cachedProperty == EmptyData.INSTANCE && newIndexImpl != null) {
-                    var parameters = newIndexImpl.parameters();
                     try {
-                        var jargs = ArgumentUtils.toJavaArguments(state, ValueFactory.varargsOf(args.arg(1), args.arg(2)), 1, parameters);
-
-                        if (jargs.length == parameters.size()) {
-                            try {
-                                var instance = TypeCoercions.toJava(state, args.arg(1), clazz);
-                                newIndexImpl.invoke(instance, jargs);
-                                return Constants.NIL;
-                            } catch (IllegalAccessException e) {
-                                throw new LuaError(e);
-                            } catch (InvocationTargetException e) {
-                                if (e.getTargetException() instanceof LuaError err)
-                                    throw err;
-
-                                throw new LuaError(e);
-                            }
+                        var jargs = newIndexPlan.toJavaArguments(state, ValueFactory.varargsOf(args.arg(1), args.arg(2)), 1);
+
+                        try {
+                            var instance = TypeCoercions.toJava(state, args.arg(1), clazz);
+                            newIndexImpl.invoke(instance, jargs);
+                            return Constants.NIL;
+                        } catch (IllegalAccessException e) {
+                            throw new LuaError(e);
+                        } catch (InvocationTargetException e) {
+                            if (e.getTargetException() instanceof LuaError err)
+                                throw err;
+
+                            throw new LuaError(e);
                         }
                     } catch (InvalidArgumentException | IllegalArgumentException e) {
                         // Continue.
@@ -259,26 +314,35 @@ public class UserdataFactory<T> {
 
     @SuppressWarnings("unchecked")
     public static <T> UserdataFactory<T> of(EClass<T> clazz) {
-        return (UserdataFactory<T>) FACTORIES.computeIfAbsent(clazz, UserdataFactory::new);
+        return (UserdataFactory<T>) FACTORIES.get(clazz.raw()).computeIfAbsent(clazz, UserdataFactory::new);
     }
 
     @SuppressWarnings("unchecked")
     public static <T> AlliumUserdata<T> getUserData(T instance) {
-        return (AlliumUserdata<T>) FACTORIES.computeIfAbsent(EClass.fromJava(instance.getClass()), UserdataFactory::new).create(instance);
+        return (AlliumUserdata<T>) of(EClass.fromJava(instance.getClass())).create(instance);
     }
 
     public AlliumUserdata<T> create(Object instance) {
-        return new AlliumUserdata<>(instance, metatable, clazz);
+        if (instances == null)
+            return new AlliumUserdata<>(instance, metatable, clazz);
+
+        return instances.computeIfAbsent(instance, obj -> new AlliumUserdata<>(obj, metatable, clazz));
     }
 
     public AlliumUserdata<T> createBound(Object instance) {
         if (boundMetatable == null)
             boundMetatable = createMetatable(true);
 
-        return new AlliumUserdata<>(instance, boundMetatable, clazz);
+        LuaTable boundMetatable = this.boundMetatable;
+        if (boundInstances == null)
+            return new AlliumUserdata<>(instance, boundMetatable, clazz);
+
+        return boundInstances.computeIfAbsent(instance, obj -> new AlliumUserdata<>(obj, boundMetatable, clazz));
     }
 
 
+    private record IndexedProperty<T>(String name, PropertyData<? super T> data) { }
+
     private static final class LessFunction extends VarArgFunction {
         private final EClass<?> bound;
 
@@ -0,0 +1,99 @@
+package dev.hugeblank.allium.loader.type;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Maps Java objects, by identity, to the userdata wrapping them. Both sides are held weakly, so an entry goes away
+ * once either the object or its wrapper is collected. A wrapper references its object, so holding the wrapper in Lua
+ * is what keeps an entry alive.
+ * <p>
+ * Entries are split across lock stripes by identity hash, so scripts wrapping different objects on different threads
+ * rarely wait on each other.
+ */
+final class WeakIdentityCache<V> {
+    private static final int STRIPES = 8;
+
+    @SuppressWarnings("unchecked")
+    private final Stripe<V>[] stripes = new Stripe[STRIPES];
+
+    WeakIdentityCache() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe<>();
+        }
+    }
+
+    V computeIfAbsent(Object key, Function<Object, ? extends V> factory) {
+        int hash = System.identityHashCode(key);
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)].computeIfAbsent(key, hash, factory);
+    }
+
+    private static final class Stripe<V> {
+        private final Map<Key, Value<V>> entries = new HashMap<>();
+        private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+        synchronized V computeIfAbsent(Object key, int hash, Function<Object, ? extends V> factory) {
+            expunge();
+
+            Value<V> existing = entries.get(new Key(key, hash, null));
+            V value = existing == null ? null : existing.get();
+
+            if (value == null) {
+                value = factory.apply(key);
+
+                Key weakKey = new Key(key, hash, queue);
+                entries.put(weakKey, new Value<>(value, weakKey, queue));
+            }
+
+            return value;
+        }
+
+        private void expunge() {
+            Reference<?> ref;
+
+            while ((ref = queue.poll()) != null) {
+                if (ref instanceof Key key) {
+                    entries.remove(key);
+                } else if (ref instanceof Value<?> value && entries.get(value.key) == value) {
+                    entries.remove(value.key);
+                }
+            }
+        }
+    }
+
+    private static final class Key extends WeakReference<Object> {
+        private final int hash;
+
+        private Key(Object referent, int hash, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Key other) || hash != other.hash) return false;
+
+            Object referent = get();
+            return referent != null && referent == other.get();
+        }
+    }
+
+    private static final class Value<V> extends WeakReference<V> {
+        private final Key key;
+
+        private Value(V referent, Key key, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            this.key = key;
+        }
+    }
+}
@@ -3,10 +3,15 @@ package dev.hugeblank.allium.loader.type.coercion;
 import me.basiqueevangelist.enhancedreflection.api.EClass;
 import me.basiqueevangelist.enhancedreflection.api.EMethod;
 import dev.hugeblank.allium.util.AsmUtil;
+import dev.hugeblank.allium.util.BytecodeCache;
 import dev.hugeblank.allium.util.ClassFieldBuilder;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
+import org.jetbrains.annotations.Nullable;
+import org.squiddev.cobalt.Constants;
 import org.squiddev.cobalt.LuaState;
 import org.squiddev.cobalt.LuaValue;
 import org.squiddev.cobalt.ValueFactory;
@@ -14,8 +19,10 @@ import org.squiddev.cobalt.Varargs;
 import org.squiddev.cobalt.function.Dispatch;
 import org.squiddev.cobalt.function.LuaFunction;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.BiFunction;
 
 import static org.objectweb.asm.Opcodes.*;
@@ -26,25 +33,54 @@ public class ProxyGenerator {
     private static final String FUNCTION_FIELD_NAME = "allium$luaFunction";
     private static final String INIT_DESCRIPTOR = "(Lorg/squiddev/cobalt/LuaState;Lorg/squiddev/cobalt/function/LuaFunction;)V";
 
-    private static final Map<EClass<?>, BiFunction<LuaState, LuaFunction, Object>> PROXIES = new HashMap<>();
+    private static final int MAX_FIXED_ARITY = 3;
 
-    public static BiFunction<LuaState, LuaFunction, Object> getProxyFactory(EClass<?> klass, EMethod implMethod) {
-        var factory = PROXIES.get(klass);
+    private static final ConcurrentMap<EClass<?>, BiFunction<LuaState, LuaFunction, Object>> PROXIES = new ConcurrentHashMap<>();
 
-        if (factory == null) {
-            factory = generateProxyClass(klass, implMethod);
-            PROXIES.put(klass, factory);
-        }
+    public static BiFunction<LuaState, LuaFunction, Object> getProxyFactory(EClass<?> klass, EMethod implMethod) {
+        return PROXIES.computeIfAbsent(klass, k -> generateProxyClass(k, implMethod));
+    }
 
-        return factory;
+    /**
+     * Called by generated proxies to pass a string to Lua.
+     */
+    public static LuaValue valueOf(@Nullable String value) {
+        return value == null ? Constants.NIL : ValueFactory.valueOf(value);
     }
 
     @SuppressWarnings("unchecked")
     private static BiFunction<LuaState, LuaFunction, Object> generateProxyClass(EClass<?> iface, EMethod method) {
         String className = AsmUtil.getUniqueClassName();
-        ClassWriter c = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
-        ClassFieldBuilder fields = new ClassFieldBuilder(className, c);
+        String signature = "proxy " + iface.raw().getName() + " " + method.name() + Type.getMethodDescriptor(method.raw()) + " " + method.returnType().upperBound().raw().getName();
+        ClassFieldBuilder fields = new ClassFieldBuilder();
+        byte[] classBytes = null;
+
+        if (BytecodeCache.isEnabled()) {
+            // Cached bytes still need their class data, which writing the class without keeping the output collects
+            writeProxyClass(BytecodeCache.discardingVisitor(), className, fields, iface, method);
+            classBytes = BytecodeCache.get(signature, fields.layout());
+        }
+
+        if (classBytes == null) {
+            ClassWriter c = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+            fields = new ClassFieldBuilder();
+            writeProxyClass(c, className, fields, iface, method);
+
+            classBytes = c.toByteArray();
+            BytecodeCache.put(signature, fields.layout(), classBytes);
+        }
+
+        Class<?> klass = AsmUtil.defineClass(className, classBytes, fields.classData());
+        fields.apply(klass);
+
+        try {
+            return (BiFunction<LuaState, LuaFunction, Object>) klass.getMethod("getFactoryMethod").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Couldn't get factory method", e);
+        }
+    }
 
+    private static void writeProxyClass(ClassVisitor c, String className, ClassFieldBuilder fields, EClass<?> iface, EMethod method) {
         c.visit(
             V17,
             ACC_PUBLIC,
@@ -77,46 +113,55 @@ public class ProxyGenerator {
         ctor.visitEnd();
 
         var desc = Type.getMethodDescriptor(method.raw());
-        int varPrefix = Type.getArgumentsAndReturnSizes(desc) >> 2;
+        var args = Type.getArgumentTypes(desc);
+        // Cobalt has fixed-arity calls for a few arguments, which saves building an array and Varargs
+        var fixedCall = getFixedCall(args.length);
 
         var m = c.visitMethod(ACC_PUBLIC, method.name(), desc, null, null);
         m.visitCode();
-        m.visitLdcInsn(method.parameters().size());
-        m.visitTypeInsn(ANEWARRAY, Type.getInternalName(LuaValue.class));
-        m.visitVarInsn(ASTORE, varPrefix);
+
+        var ret = Type.getType(method.returnType().upperBound().raw());
+        var isVoid = ret.getSort() == Type.VOID;
+
+        m.visitVarInsn(ALOAD, 0);
+        m.visitFieldInsn(GETFIELD, className, STATE_FIELD_NAME, Type.getDescriptor(LuaState.class));
+        if (!isVoid) m.visitInsn(DUP);
+        m.visitVarInsn(ALOAD, 0);
+        m.visitFieldInsn(GETFIELD, className, FUNCTION_FIELD_NAME, Type.getDescriptor(LuaFunction.class));
+
+        if (fixedCall == null) {
+            m.visitLdcInsn(args.length);
+            m.visitTypeInsn(ANEWARRAY, Type.getInternalName(LuaValue.class));
+        }
 
         int argIndex = 1;
-        var args = Type.getArgumentTypes(desc);
         for (int i = 0; i < args.length; i++) {
-            m.visitVarInsn(ALOAD, varPrefix);
-            m.visitLdcInsn(i);
-            m.visitVarInsn(args[i].getOpcode(ILOAD), argIndex);
-
-            if (args[i].getSort() != Type.OBJECT || args[i].getSort() != Type.ARRAY) {
-                AsmUtil.wrapPrimitive(m, args[i]);
+            if (fixedCall == null) {
+                m.visitInsn(DUP);
+                m.visitLdcInsn(i);
             }
 
-            fields.storeAndGet(m, method.parameters().get(i).parameterType().lowerBound().wrapPrimitive(), EClass.class);
-            m.visitMethodInsn(INVOKESTATIC, Type.getInternalName(TypeCoercions.class), "toLuaValue", "(Ljava/lang/Object;Lme/basiqueevangelist/enhancedreflection/api/EClass;)Lorg/squiddev/cobalt/LuaValue;", false);
-            m.visitInsn(AASTORE);
+            m.visitVarInsn(args[i].getOpcode(ILOAD), argIndex);
+            toLuaValue(m, fields, args[i], method.parameters().get(i).parameterType().lowerBound());
+
+            if (fixedCall == null) m.visitInsn(AASTORE);
 
             argIndex += args[i].getSize();
         }
 
-        var ret = Type.getType(method.returnType().upperBound().raw());
-        var isVoid = ret.getSort() == Type.VOID;
+        if (fixedCall != null) {
+            m.visitMethodInsn(INVOKESTATIC, Type.getInternalName(Dispatch.class), "call", fixedCall, false);
 
-        m.visitVarInsn(ALOAD, 0);
-        m.visitFieldInsn(GETFIELD, className, STATE_FIELD_NAME, Type.getDescriptor(LuaState.class));
-        if (!isVoid) m.visitInsn(DUP);
-        m.visitVarInsn(ALOAD, 0);
-        m.visitFieldInsn(GETFIELD, className, FUNCTION_FIELD_NAME, Type.getDescriptor(LuaFunction.class));
-        m.visitVarInsn(ALOAD, varPrefix);
-        m.visitMethodInsn(INVOKESTATIC, Type.getInternalName(ValueFactory.class), "varargsOf", "([Lorg/squiddev/cobalt/LuaValue;)Lorg/squiddev/cobalt/Varargs;", false);
-        m.visitMethodInsn(INVOKESTATIC, Type.getInternalName(Dispatch.class), "invoke", "(Lorg/squiddev/cobalt/LuaState;Lorg/squiddev/cobalt/LuaValue;Lorg/squiddev/cobalt/Varargs;)Lorg/squiddev/cobalt/Varargs;", false);
+            if (isVoid) m.visitInsn(POP);
+        } else {
+            m.visitMethodInsn(INVOKESTATIC, Type.getInternalName(ValueFactory.class), "varargsOf", "([Lorg/squiddev/cobalt/LuaValue;)Lorg/squiddev/cobalt/Varargs;", false);
+            m.visitMethodInsn(INVOKESTATIC, Type.getInternalName(Dispatch.class), "invoke", "(Lorg/squiddev/cobalt/LuaState;Lorg/squiddev/cobalt/LuaValue;Lorg/squiddev/cobalt/Varargs;)Lorg/squiddev/cobalt/Varargs;", false);
+
+            if (isVoid) m.visitInsn(POP);
+            else m.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(Varargs.class), "first", "()Lorg/squiddev/cobalt/LuaValue;", false);
+        }
 
         if (!isVoid) {
-            m.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(Varargs.class), "first", "()Lorg/squiddev/cobalt/LuaValue;", false);
             fields.storeAndGet(m, method.returnType().upperBound().wrapPrimitive(), EClass.class);
 
             m.visitMethodInsn(INVOKESTATIC, Type.getInternalName(TypeCoercions.class), "toJava", "(Lorg/squiddev/cobalt/LuaState;Lorg/squiddev/cobalt/LuaValue;Lme/basiqueevangelist/enhancedreflection/api/EClass;)Ljava/lang/Object;", false);
@@ -146,14 +191,66 @@ public class ProxyGenerator {
         m.visitMaxs(0, 0);
         m.visitEnd();
 
-        byte[] classBytes = c.toByteArray();
-        Class<?> klass = AsmUtil.defineClass(className, classBytes);
-        fields.apply(klass);
+        c.visitEnd();
+    }
+
+    // Leaves the LuaValue for a parameter already loaded onto the stack.
+    private static void toLuaValue(MethodVisitor m, ClassFieldBuilder fields, Type type, EClass<?> parameterType) {
+        if (!writeDirectToLua(m, type)) {
+            fields.storeAndGet(m, parameterType.wrapPrimitive(), EClass.class);
+            m.visitMethodInsn(INVOKESTATIC, Type.getInternalName(TypeCoercions.class), "toLuaValue", "(Ljava/lang/Object;Lme/basiqueevangelist/enhancedreflection/api/EClass;)Lorg/squiddev/cobalt/LuaValue;", false);
+        }
+    }
 
+    /**
+     * Converts a primitive or string on top of the stack to a LuaValue without going through {@link TypeCoercions}.
+     *
+     * @return false if the value is of some other type, in which case nothing was written
+     */
+    public static boolean writeDirectToLua(MethodVisitor m, Type type) {
+        switch (type.getSort()) {
+            case Type.BOOLEAN -> valueOf(m, boolean.class);
+            case Type.INT, Type.SHORT, Type.BYTE, Type.CHAR -> valueOf(m, int.class);
+            case Type.LONG -> valueOf(m, long.class);
+            case Type.FLOAT -> {
+                m.visitInsn(F2D);
+                valueOf(m, double.class);
+            }
+            case Type.DOUBLE -> valueOf(m, double.class);
+            default -> {
+                if (type.getSort() != Type.OBJECT || !type.getInternalName().equals("java/lang/String")) return false;
+
+                m.visitMethodInsn(INVOKESTATIC, Type.getInternalName(ProxyGenerator.class), "valueOf", "(Ljava/lang/String;)Lorg/squiddev/cobalt/LuaValue;", false);
+            }
+        }
+
+        return true;
+    }
+
+    private static void valueOf(MethodVisitor m, Class<?> primitive) {
         try {
-            return (BiFunction<LuaState, LuaFunction, Object>) klass.getMethod("getFactoryMethod").invoke(null);
-        } catch (ReflectiveOperationException e) {
-            throw new RuntimeException("Couldn't get factory method", e);
+            var method = ValueFactory.class.getMethod("valueOf", primitive);
+            m.visitMethodInsn(INVOKESTATIC, Type.getInternalName(ValueFactory.class), "valueOf", Type.getMethodDescriptor(method), false);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("ValueFactory has no valueOf(" + primitive + ")", e);
+        }
+    }
+
+    /**
+     * @return the descriptor of the {@code Dispatch.call} that takes this many arguments, or null if there isn't one
+     */
+    public static @Nullable String getFixedCall(int arity) {
+        if (arity > MAX_FIXED_ARITY) return null;
+
+        Class<?>[] params = new Class<?>[arity + 2];
+        params[0] = LuaState.class;
+        Arrays.fill(params, 1, params.length, LuaValue.class);
+
+        try {
+            Method call = Dispatch.class.getMethod("call", params);
+            return call.getReturnType() == LuaValue.class ? Type.getMethodDescriptor(call) : null;
+        } catch (NoSuchMethodException e) {
+            return null;
         }
     }
 }
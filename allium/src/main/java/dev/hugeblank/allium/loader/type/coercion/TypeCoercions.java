@@ -1,124 +1,344 @@
 package dev.hugeblank.allium.loader.type.coercion;
 
 import dev.hugeblank.allium.loader.type.AlliumUserdata;
+import dev.hugeblank.allium.loader.type.ArrayView;
+import dev.hugeblank.allium.loader.type.CollectionView;
 import dev.hugeblank.allium.loader.type.InvalidArgumentException;
 import dev.hugeblank.allium.loader.type.UDFFunctions;
 import dev.hugeblank.allium.loader.type.UserdataFactory;
 import dev.hugeblank.allium.loader.type.annotation.CoerceToBound;
 import dev.hugeblank.allium.loader.type.annotation.CoerceToNative;
+import dev.hugeblank.allium.loader.type.annotation.CoerceToView;
+import dev.hugeblank.allium.loader.type.invoker.CallTarget;
 import dev.hugeblank.allium.util.JavaHelpers;
 import me.basiqueevangelist.enhancedreflection.api.*;
 import me.basiqueevangelist.enhancedreflection.api.typeuse.EClassUse;
 import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.Nullable;
 import org.squiddev.cobalt.*;
 import org.squiddev.cobalt.function.LuaFunction;
 
 import java.lang.reflect.Array;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 
 public class TypeCoercions {
-    private static final Map<Class<?>, Function<EClass<?>, LuaToJavaConverter<?>>> FROM_LUA = new HashMap<>();
-    private static final Map<Class<?>, Function<EClassUse<?>, JavaToLuaConverter<?>>> TO_LUA = new HashMap<>();
+    private static final Map<Class<?>, Function<EClass<?>, LuaToJavaConverter<?>>> FROM_LUA = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Function<EClassUse<?>, JavaToLuaConverter<?>>> TO_LUA = new ConcurrentHashMap<>();
+    // Caches for everything resolved from the maps above. Entries built before the last registration are stale.
+    private static final ClassValue<EClass<?>> ECLASSES = new ClassValue<>() {
+        @Override
+        protected EClass<?> computeValue(Class<?> type) {
+            return EClass.fromJava(type);
+        }
+    };
+    private static final ClassValue<SerializerCache> SERIALIZERS = new ClassValue<>() {
+        @Override
+        protected SerializerCache computeValue(Class<?> type) {
+            return new SerializerCache(type);
+        }
+    };
+    private static final ClassValue<TypeCache<CompiledConverter>> CONVERTERS = new ClassValue<>() {
+        @Override
+        protected TypeCache<CompiledConverter> computeValue(Class<?> type) {
+            return new TypeCache<>();
+        }
+    };
+    // The single abstract method of each interface, keyed like CONVERTERS since instantiations differ in method types
+    private static final ClassValue<TypeCache<Sam>> SAMS = new ClassValue<>() {
+        @Override
+        protected TypeCache<Sam> computeValue(Class<?> type) {
+            return new TypeCache<>();
+        }
+    };
+    // Whether a runtime class can stand in for a declared type, per runtime class. Doesn't depend on registrations.
+    // Declared types without type arguments are keyed by their raw class, so looking them up doesn't build a key.
+    private static final ClassValue<ConcurrentMap<Object, Boolean>> MATCHES = new ClassValue<>() {
+        @Override
+        protected ConcurrentMap<Object, Boolean> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+    // How many instantiations of a single class are cached before older ones start making room for new ones.
+    private static final int MAX_CACHED_TYPES = 256;
+    private static final JavaToLuaConverter<Object> NO_SERIALIZER = value -> null;
+    private static volatile int generation = 0;
 
     public static <T> void registerJavaToLua(Class<T> klass, JavaToLuaConverter<T> serializer) {
-        if (TO_LUA.put(klass, unused -> serializer) != null)
+        if (TO_LUA.putIfAbsent(klass, new FixedSerializer(serializer)) != null)
             throw new IllegalStateException("Converter already registered for " + klass);
+        invalidateCaches();
     }
 
     @SuppressWarnings("unchecked")
     public static <T> void registerComplexJavaToLua(Class<T> klass, Function<EClassUse<T>, JavaToLuaConverter<T>> serializerFactory) {
-        if (TO_LUA.put(klass, (Function<EClassUse<?>, JavaToLuaConverter<?>>)(Object) serializerFactory) != null)
+        if (TO_LUA.putIfAbsent(klass, (Function<EClassUse<?>, JavaToLuaConverter<?>>)(Object) serializerFactory) != null)
             throw new IllegalStateException("Converter already registered for " + klass);
+        invalidateCaches();
     }
 
     public static <T> void registerLuaToJava(Class<T> klass, LuaToJavaConverter<T> deserializer) {
-        if (FROM_LUA.put(klass, unused -> deserializer) != null)
+        if (FROM_LUA.putIfAbsent(klass, unused -> deserializer) != null)
             throw new IllegalStateException("Converter already registered for " + klass);
+        invalidateCaches();
     }
 
     @SuppressWarnings("unchecked")
     public static <T> void registerLuaToJava(Class<T> klass, Function<EClass<T>, LuaToJavaConverter<T>> deserializerFactory) {
-        if (FROM_LUA.put(klass, (Function<EClass<?>, LuaToJavaConverter<?>>)(Object) deserializerFactory) != null)
+        if (FROM_LUA.putIfAbsent(klass, (Function<EClass<?>, LuaToJavaConverter<?>>)(Object) deserializerFactory) != null)
             throw new IllegalStateException("Converter already registered for " + klass);
+        invalidateCaches();
     }
 
+    private static synchronized void invalidateCaches() {
+        generation++;
+    }
+
+    /**
+     * Returned by the non-throwing conversions in place of a value when the value can't be converted.
+     */
+    public static final Object NO_MATCH = new Object();
+
     public static Object toJava(LuaState state, LuaValue value, Class<?> clatz) throws InvalidArgumentException, LuaError {
         return toJava(state, value, EClass.fromJava(clatz));
     }
 
     public static Object toJava(LuaState state, LuaValue value, EClass<?> clatz) throws LuaError, InvalidArgumentException {
-        if (clatz.isAssignableFrom(value.getClass()) && !clatz.equals(CommonTypes.OBJECT)) {
-            return value;
-        }
-
-        if (value.isNil())
-            return null;
-        
-        if (value instanceof AlliumUserdata<?> userdata)
-            try {
-                return userdata.toUserdata(clatz.wrapPrimitive());
-            } catch (ClassCastException e) {
-                throw new InvalidArgumentException(e);
+        return getConverter(clatz).fromLua(state, value);
+    }
+
+    /**
+     * Converts a value without throwing when it can't be converted.
+     *
+     * @return the converted value, or {@link #NO_MATCH} if the value can't become a {@code clatz}
+     */
+    public static Object tryToJava(LuaState state, LuaValue value, EClass<?> clatz) throws LuaError {
+        return getConverter(clatz).tryFromLua(state, value);
+    }
+
+    /**
+     * Resolves everything {@link #toJava(LuaState, LuaValue, EClass)} needs to know about the target type up front,
+     * so the returned converter can be reused for many values.
+     */
+    public static CompiledConverter getConverter(EClass<?> clatz) {
+        var converters = CONVERTERS.get(clatz.raw());
+        CompiledConverter converter = converters.get(clatz);
+
+        // Not computeIfAbsent, since building a converter for List<List<T>> needs the one for List<T> from the same map.
+        if (converter == null || converter.generation != generation) {
+            converter = new CompiledConverter(clatz);
+
+            converters.put(clatz, converter);
+        }
+
+        return converter;
+    }
+
+    public static final class CompiledConverter implements LuaToJavaConverter<Object> {
+        /** The value definitely can't be converted. */
+        public static final int SCORE_NONE = -1;
+        /** The value might convert, but only converting it will tell. */
+        public static final int SCORE_LOOSE = 0;
+        /** The value converts, though not to its most natural Java type. */
+        public static final int SCORE_COERCED = 1;
+        /** The value converts, but a more specific type would also accept it. */
+        public static final int SCORE_WIDENED = 2;
+        /** The value is already exactly what the target type wants. */
+        public static final int SCORE_EXACT = 3;
+
+        private final EClass<?> target;
+        private final boolean isObject;
+        private final boolean isPrimitive;
+        private final EClass<?> wrapped;
+        private final EClass<?> clatz;
+        private final @Nullable LuaToJavaConverter<?> deserializer;
+        private @Nullable CompiledConverter componentConverter;
+        private volatile @Nullable Sam sam;
+        private final int generation;
+
+        private CompiledConverter(EClass<?> target) {
+            this.generation = TypeCoercions.generation;
+            this.target = target;
+            this.isObject = target.equals(CommonTypes.OBJECT);
+            this.isPrimitive = target.raw().isPrimitive();
+            this.wrapped = target.wrapPrimitive();
+            this.clatz = target.unwrapPrimitive();
+
+            var deserializerFactory = FROM_LUA.get(clatz.raw());
+            this.deserializer = deserializerFactory != null ? deserializerFactory.apply(clatz) : null;
+        }
+
+        /**
+         * Cheaply rates how well a value fits the target type, without converting it.
+         *
+         * @return one of the {@code SCORE_} constants. Anything but {@link #SCORE_NONE} still needs to be converted
+         * to know for sure that it fits.
+         */
+        public int score(LuaValue value) {
+            if (!isObject && target.isAssignableFrom(value.getClass())) {
+                return SCORE_EXACT;
             }
 
-        clatz = clatz.unwrapPrimitive();
+            if (value.isNil())
+                return isPrimitive ? SCORE_NONE : SCORE_COERCED;
+
+            if (value instanceof AlliumUserdata<?> userdata) {
+                Object instance = userdata.toUserdata();
 
-        var deserializerFactory = FROM_LUA.get(clatz.raw());
-        if (deserializerFactory != null) {
-            var deserializer = deserializerFactory.apply(clatz);
+                if (instance == null) return SCORE_COERCED;
+                if (!wrapped.raw().isInstance(instance)) return SCORE_NONE;
+                if (instance.getClass() == wrapped.raw()) return SCORE_EXACT;
+
+                return isObject ? SCORE_COERCED : SCORE_WIDENED;
+            }
 
             if (deserializer != null) {
-                Object result = deserializer.fromLua(state, value);
+                int score = scoreBuiltin(value);
+
+                if (score != SCORE_NONE) return score;
+            }
+
+            if (clatz.type() == ClassType.ARRAY)
+                return value instanceof LuaTable ? SCORE_COERCED : SCORE_NONE;
+
+            if (value instanceof LuaFunction && getSam().method != null)
+                return SCORE_COERCED;
+
+            return SCORE_NONE;
+        }
 
-                if (result != null) return result;
+        private int scoreBuiltin(LuaValue value) {
+            Class<?> raw = clatz.raw();
+            int type = value.type();
+
+            if (raw == boolean.class) {
+                return type == Constants.TBOOLEAN ? SCORE_EXACT : SCORE_NONE;
+            } else if (raw == String.class) {
+                return type == Constants.TSTRING ? SCORE_EXACT : type == Constants.TNUMBER ? SCORE_LOOSE : SCORE_NONE;
+            } else if (raw == int.class || raw == long.class || raw == short.class || raw == byte.class || raw == char.class) {
+                return type == Constants.TNUMBER ? value instanceof LuaInteger ? SCORE_EXACT : SCORE_WIDENED : type == Constants.TSTRING ? SCORE_LOOSE : SCORE_NONE;
+            } else if (raw == double.class || raw == float.class) {
+                return type == Constants.TNUMBER ? value instanceof LuaInteger ? SCORE_WIDENED : SCORE_EXACT : type == Constants.TSTRING ? SCORE_LOOSE : SCORE_NONE;
             }
+
+            // Registered by someone else, so only trying it will tell.
+            return SCORE_LOOSE;
         }
 
-        if (clatz.type() == ClassType.ARRAY) {
-            try {
-                LuaTable table = value.checkTable();
+        @Override
+        public Object fromLua(LuaState state, LuaValue value) throws LuaError, InvalidArgumentException {
+            Object result = tryFromLua(state, value);
+
+            if (result == NO_MATCH)
+                throw new InvalidArgumentException("Couldn't convert " + value + " to java! Target type is " + clatz);
+
+            return result;
+        }
+
+        /**
+         * @return the converted value, or {@link #NO_MATCH} if it can't be converted
+         */
+        public Object tryFromLua(LuaState state, LuaValue value) throws LuaError {
+            if (!isObject && target.isAssignableFrom(value.getClass())) {
+                return value;
+            }
+
+            if (value.isNil())
+                return isPrimitive ? NO_MATCH : null;
+
+            if (value instanceof AlliumUserdata<?> userdata) {
+                Object instance = userdata.toUserdata();
+                return instance == null || wrapped.raw().isInstance(instance) ? instance : NO_MATCH;
+            }
+
+            if (deserializer != null) {
+                try {
+                    Object result = deserializer.fromLua(state, value);
+
+                    if (result != null) return result;
+                } catch (InvalidArgumentException e) {
+                    return NO_MATCH;
+                }
+            }
+
+            if (clatz.type() == ClassType.ARRAY) {
+                if (!(value instanceof LuaTable table)) return NO_MATCH;
+
+                CompiledConverter component = componentConverter;
+                if (component == null || component.generation != TypeCoercions.generation) {
+                    component = getConverter(clatz.arrayComponent());
+                    componentConverter = component;
+                }
+
                 int length = table.length();
-                Object arr = Array.newInstance(clatz.arrayComponent().raw(), table.length());
+                Object arr = Array.newInstance(clatz.arrayComponent().raw(), length);
                 for (int i = 0; i < length; i++) {
-                    Array.set(arr, i, toJava(state, table.rawget(i + 1), clatz.arrayComponent()));
+                    Object element = component.tryFromLua(state, table.rawget(i + 1));
+
+                    if (element == NO_MATCH) return NO_MATCH;
+                    Array.set(arr, i, element);
                 }
-                return clatz.cast(arr);
-            } catch (Exception e) {
-                throw new LuaError(
-                        "Expected table of "
-                                + clatz.arrayComponent()
-                                + "s, got "
-                                + value.typeName()
-                );
+                return arr;
             }
-        }
 
-        if (value instanceof LuaFunction func && clatz.type() == ClassType.INTERFACE) { // Callbacks
-            EMethod ifaceMethod = null;
+            if (value instanceof LuaFunction func) { // Callbacks
+                Sam sam = getSam();
 
-            int unimplemented = 0;
-            for (var meth : clatz.methods()) {
-                if (meth.isAbstract()) {
-                    unimplemented++;
-                    ifaceMethod = meth;
+                if (sam.method != null) {
+                    return sam.proxyFactory(clatz).apply(state, func);
+                } // TODO: Weird code was removed here. Did that break anything?
+            }
 
-                    if (unimplemented > 1) {
-                        break;
-                    }
-                }
+            return NO_MATCH;
+        }
+
+        private Sam getSam() {
+            Sam sam = this.sam;
+
+            if (sam == null) {
+                sam = TypeCoercions.getSam(clatz);
+                this.sam = sam;
             }
 
-            if (unimplemented == 1) {
-                return ProxyGenerator.getProxyFactory(clatz, ifaceMethod).apply(state, func);
-            } // TODO: Weird code was removed here. Did that break anything?
+            return sam;
         }
+    }
+
+    /**
+     * What's needed to turn a Lua function into an implementation of a functional interface and back, built once per
+     * interface.
+     */
+    private static final class Sam {
+        private static final Sam NONE = new Sam(null);
+
+        private final @Nullable EMethod method;
+        private final List<EMethod> methods;
+        // Shared by every function wrapping an implementation of this interface
+        private final CallTarget[] targets = new CallTarget[1];
+        private volatile BiFunction<LuaState, LuaFunction, Object> proxyFactory;
+
+        private Sam(@Nullable EMethod method) {
+            this.method = method;
+            this.methods = method == null ? List.of() : List.of(method);
+        }
+
+        private BiFunction<LuaState, LuaFunction, Object> proxyFactory(EClass<?> iface) {
+            BiFunction<LuaState, LuaFunction, Object> factory = proxyFactory;
 
-        throw new InvalidArgumentException("Couldn't convert " + value + " to java! Target type is " + clatz);
+            if (factory == null) {
+                factory = ProxyGenerator.getProxyFactory(iface, method);
+                proxyFactory = factory;
+            }
+
+            return factory;
+        }
     }
 
     public static LuaValue toLuaValue(Object out) {
-        return toLuaValue(out, out != null ? EClass.fromJava(out.getClass()) : CommonTypes.OBJECT);
+        return toLuaValue(out, out != null ? ECLASSES.get(out.getClass()) : CommonTypes.OBJECT);
     }
 
     public static LuaValue toLuaValue(Object out, EClass<?> ret) {
@@ -137,15 +357,16 @@ public class TypeCoercions {
             return (LuaValue) out;
         }
 
-        var serializerFactory = TO_LUA.get(klass.raw());
-        if (serializerFactory != null) {
-            var serializer = (JavaToLuaConverter<Object>) serializerFactory.apply(ret);
+        var serializer = getSerializer(klass.raw(), ret);
+        if (serializer != null) {
+            LuaValue result = serializer.toLua(out);
 
-            if (serializer != null) {
-                LuaValue result = serializer.toLua(out);
+            if (result != null) return result;
+        }
 
-                if (result != null) return result;
-            }
+        if (ret.hasAnnotation(CoerceToView.class)) {
+            if (klass.type() == ClassType.ARRAY) return ArrayView.of(out, ret.arrayComponent());
+            if (CollectionView.canView(out)) return CollectionView.of(out, ret);
         }
 
         if (klass.type() == ClassType.ARRAY) {
@@ -156,29 +377,17 @@ public class TypeCoercions {
             }
             return table;
         } else if (klass.type() == ClassType.INTERFACE && klass.hasAnnotation(FunctionalInterface.class)) {
-            EMethod ifaceMethod = null;
-
-            int unimplemented = 0;
-            for (var meth : klass.methods()) {
-                if (meth.isAbstract()) {
-                    unimplemented++;
-                    ifaceMethod = meth;
+            Sam sam = getSam(klass);
 
-                    if (unimplemented > 1) {
-                        break;
-                    }
-                }
-            }
-
-            if (unimplemented == 1) {
-                return new UDFFunctions(klass, Collections.singletonList(ifaceMethod), ifaceMethod.name(), out, false);
+            if (sam.method != null) {
+                return new UDFFunctions(klass, sam.methods, sam.method.name(), out, false, null, sam.targets);
             } else {
                 return UserdataFactory.of(klass).create(klass.cast(out));
             }
         } else if (klass.raw().isAssignableFrom(out.getClass())) {
-            EClass<?> trueRet = EClass.fromJava(out.getClass());
+            EClass<?> trueRet = ECLASSES.get(out.getClass());
 
-            if (canMatch(trueRet, klass)) {
+            if (canMatchCached(out.getClass(), trueRet, klass)) {
                 if (ret.hasAnnotation(CoerceToBound.class))
                     return UserdataFactory.of(trueRet).createBound(out);
                 else
@@ -194,6 +403,75 @@ public class TypeCoercions {
         }
     }
 
+    private static @Nullable JavaToLuaConverter<Object> getSerializer(Class<?> klass, EClassUse<?> use) {
+        SerializerCache cache = SERIALIZERS.get(klass);
+
+        if (cache.generation != generation) {
+            SERIALIZERS.remove(klass);
+            cache = SERIALIZERS.get(klass);
+        }
+
+        return cache.get(use);
+    }
+
+    private static Sam getSam(EClass<?> klass) {
+        TypeCache<Sam> sams = SAMS.get(klass.raw());
+        Sam sam = sams.get(klass);
+
+        if (sam == null) {
+            sam = Sam.NONE;
+
+            if (klass.type() == ClassType.INTERFACE) {
+                EMethod ifaceMethod = null;
+
+                int unimplemented = 0;
+                for (var meth : klass.methods()) {
+                    if (meth.isAbstract()) {
+                        unimplemented++;
+                        ifaceMethod = meth;
+
+                        if (unimplemented > 1) {
+                            break;
+                        }
+                    }
+                }
+
+                if (unimplemented == 1) sam = new Sam(ifaceMethod);
+            }
+
+            sams.put(klass, sam);
+        }
+
+        return sam;
+    }
+
+    private static boolean canMatchCached(Class<?> runtime, EClass<?> type, EClass<?> declared) {
+        ConcurrentMap<Object, Boolean> matches = MATCHES.get(runtime);
+        Object key = declared.typeVariableValues().isEmpty() ? declared.raw() : TypeKey.of(declared);
+        Boolean result = matches.get(key);
+
+        if (result == null) {
+            result = canMatch(type, declared);
+            putBounded(matches, key, result);
+        }
+
+        return result;
+    }
+
+    // Makes room by dropping whichever entry comes first, rather than no longer caching anything new once full.
+    private static <K, V> void putBounded(ConcurrentMap<K, V> cache, K key, V value) {
+        if (cache.size() >= MAX_CACHED_TYPES) {
+            Iterator<K> keys = cache.keySet().iterator();
+
+            if (keys.hasNext()) {
+                keys.next();
+                keys.remove();
+            }
+        }
+
+        cache.put(key, value);
+    }
+
     private static boolean canMatch(EType type, EType other) {
         if (type.equals(other)) return true;
 
@@ -268,15 +546,16 @@ public class TypeCoercions {
             };
         });
 
-        TypeCoercions.registerLuaToJava(int.class, (state, val) -> suppressError(val::checkInteger));
-        TypeCoercions.registerLuaToJava(byte.class, (state, val) -> suppressError(() -> (byte)val.checkInteger()));
-        TypeCoercions.registerLuaToJava(short.class, (state, val) -> suppressError(() -> (short)val.checkInteger()));
-        TypeCoercions.registerLuaToJava(char.class, (state, val) -> suppressError(() -> (char)val.checkInteger()));
-        TypeCoercions.registerLuaToJava(double.class, (state, val) -> suppressError(val::checkDouble));
-        TypeCoercions.registerLuaToJava(float.class, (state, val) -> suppressError(() -> (float)val.checkDouble()));
-        TypeCoercions.registerLuaToJava(long.class, (state, val) -> suppressError(val::checkLong));
-        TypeCoercions.registerLuaToJava(boolean.class, (state, val) -> suppressError(val::checkBoolean));
-        TypeCoercions.registerLuaToJava(String.class, (state, val) -> suppressError(val::checkString));
+        // Only values that are numbers, or strings that parse as one, are checked, so the checks below can't throw.
+        TypeCoercions.registerLuaToJava(int.class, (state, val) -> isNumber(val) ? val.checkInteger() : null);
+        TypeCoercions.registerLuaToJava(byte.class, (state, val) -> isNumber(val) ? (byte) val.checkInteger() : null);
+        TypeCoercions.registerLuaToJava(short.class, (state, val) -> isNumber(val) ? (short) val.checkInteger() : null);
+        TypeCoercions.registerLuaToJava(char.class, (state, val) -> isNumber(val) ? (char) val.checkInteger() : null);
+        TypeCoercions.registerLuaToJava(double.class, (state, val) -> isNumber(val) ? val.checkDouble() : null);
+        TypeCoercions.registerLuaToJava(float.class, (state, val) -> isNumber(val) ? (float) val.checkDouble() : null);
+        TypeCoercions.registerLuaToJava(long.class, (state, val) -> isNumber(val) ? val.checkLong() : null);
+        TypeCoercions.registerLuaToJava(boolean.class, (state, val) -> val.type() == Constants.TBOOLEAN ? Boolean.valueOf(val.toBoolean()) : null);
+        TypeCoercions.registerLuaToJava(String.class, (state, val) -> val.isString() ? suppressError(val::checkString) : null);
 
         TypeCoercions.registerLuaToJava(EClass.class, (state, val) -> JavaHelpers.asClass(val));
         TypeCoercions.registerLuaToJava(Class.class, (state, val) -> {
@@ -286,15 +565,19 @@ public class TypeCoercions {
         });
 
         TypeCoercions.registerLuaToJava(List.class, klass -> {
-            EClass<?> componentType = klass.typeVariableValues().get(0).upperBound();
+            CompiledConverter componentConverter = getConverter(klass.typeVariableValues().get(0).upperBound());
 
             return (state, value) -> {
-                LuaTable table = value.checkTable();
+                if (!(value instanceof LuaTable table)) return null;
+
                 int length = table.length();
                 List<Object> list = new ArrayList<>(length);
 
                 for (int i = 0; i < length; i++) {
-                    list.add(TypeCoercions.toJava(state, table.rawget(i + 1), componentType));
+                    Object element = componentConverter.tryFromLua(state, table.rawget(i + 1));
+
+                    if (element == NO_MATCH) return null;
+                    list.add(element);
                 }
 
                 return list;
@@ -302,11 +585,12 @@ public class TypeCoercions {
         });
 
         TypeCoercions.registerLuaToJava(Map.class, klass -> {
-            EClass<?> keyType = klass.typeVariableValues().get(0).upperBound();
-            EClass<?> valueType = klass.typeVariableValues().get(1).upperBound();
+            CompiledConverter keyConverter = getConverter(klass.typeVariableValues().get(0).upperBound());
+            CompiledConverter valueConverter = getConverter(klass.typeVariableValues().get(1).upperBound());
 
             return (state, value) -> {
-                LuaTable table = value.checkTable();
+                if (!(value instanceof LuaTable table)) return null;
+
                 int length = table.length();
                 Map<Object, Object> map = new HashMap<>(length);
 
@@ -317,7 +601,11 @@ public class TypeCoercions {
                         break;
                     LuaValue v = n.arg(2);
 
-                    map.put(TypeCoercions.toJava(state, k, keyType), TypeCoercions.toJava(state, v, valueType));
+                    Object key = keyConverter.tryFromLua(state, k);
+                    Object val = valueConverter.tryFromLua(state, v);
+
+                    if (key == NO_MATCH || val == NO_MATCH) return null;
+                    map.put(key, val);
                 }
 
                 return map;
@@ -331,6 +619,11 @@ public class TypeCoercions {
         });
     }
 
+    private static boolean isNumber(LuaValue value) {
+        int type = value.type();
+        return type == Constants.TNUMBER || (type == Constants.TSTRING && !Double.isNaN(value.toNumber()));
+    }
+
     private static <T> T suppressError(SupplierThrowsLuaError<T> checkValue) {
         try {
             return checkValue.get();
@@ -342,4 +635,129 @@ public class TypeCoercions {
         T get() throws LuaError;
     }
 
+
+    /**
+     * Values cached for the instantiations of one class. The class without type arguments, which is what nearly every
+     * lookup is for, has a slot of its own, so looking it up doesn't build a key.
+     */
+    private static final class TypeCache<V> {
+        private volatile @Nullable V plain;
+        private final ConcurrentMap<TypeKey, V> generic = new ConcurrentHashMap<>();
+
+        private @Nullable V get(EClass<?> klass) {
+            return klass.typeVariableValues().isEmpty() ? plain : generic.get(TypeKey.of(klass));
+        }
+
+        private void put(EClass<?> klass, V value) {
+            if (klass.typeVariableValues().isEmpty()) plain = value;
+            else putBounded(generic, TypeKey.of(klass), value);
+        }
+    }
+
+    /**
+     * Identifies a type by its raw class and the keys of its type arguments, so two instances of the same generic type
+     * always land on the same cache entry. Keys for type uses also hold which coercion annotations are on the use.
+     */
+    private record TypeKey(Class<?> raw, List<Object> arguments, int coercions) {
+        private static final int TO_NATIVE = 1;
+        private static final int TO_VIEW = 2;
+        private static final int TO_BOUND = 4;
+
+        private static TypeKey of(EClass<?> klass) {
+            var values = klass.typeVariableValues();
+            if (values.isEmpty()) return new TypeKey(klass.raw(), List.of(), 0);
+
+            List<Object> arguments = new ArrayList<>(values.size());
+            for (EType value : values) {
+                arguments.add(keyOf(value));
+            }
+
+            return new TypeKey(klass.raw(), arguments, 0);
+        }
+
+        private static TypeKey of(EClassUse<?> use) {
+            int coercions = (use.hasAnnotation(CoerceToNative.class) ? TO_NATIVE : 0)
+                | (use.hasAnnotation(CoerceToView.class) ? TO_VIEW : 0)
+                | (use.hasAnnotation(CoerceToBound.class) ? TO_BOUND : 0);
+
+            var values = use.typeVariableValues();
+            List<Object> arguments = new ArrayList<>(values.size());
+            // Serializers only ever look at the upper bound of a type argument
+            for (var value : values) {
+                arguments.add(of(value.upperBound()));
+            }
+
+            return new TypeKey(use.type().raw(), arguments, coercions);
+        }
+
+        private static Object keyOf(EType type) {
+            if (type instanceof EClass<?> klass) {
+                return of(klass);
+            } else if (type instanceof EWildcard wildcard) {
+                return List.of(keysOf(wildcard.upperBounds()), keysOf(wildcard.lowerBounds()));
+            } else {
+                // Type variables have nothing else to compare by
+                return type;
+            }
+        }
+
+        private static List<Object> keysOf(Collection<? extends EType> types) {
+            List<Object> keys = new ArrayList<>(types.size());
+            for (EType type : types) {
+                keys.add(keyOf(type));
+            }
+
+            return keys;
+        }
+    }
+
+    private record FixedSerializer(JavaToLuaConverter<?> serializer) implements Function<EClassUse<?>, JavaToLuaConverter<?>> {
+        @Override
+        public JavaToLuaConverter<?> apply(EClassUse<?> use) {
+            return serializer;
+        }
+    }
+
+    /**
+     * The serializers for one class. Factories registered with {@link #registerComplexJavaToLua(Class, Function)} are
+     * only called once for each type use, where uses with the same type arguments and coercion annotations count as
+     * the same use.
+     */
+    private static final class SerializerCache {
+        private final int generation = TypeCoercions.generation;
+        private final @Nullable Function<EClassUse<?>, JavaToLuaConverter<?>> factory;
+        private final @Nullable JavaToLuaConverter<Object> fixed;
+        private final ConcurrentMap<TypeKey, JavaToLuaConverter<Object>> byUse = new ConcurrentHashMap<>();
+
+        @SuppressWarnings("unchecked")
+        private SerializerCache(Class<?> klass) {
+            var factory = TO_LUA.get(klass);
+
+            if (factory instanceof FixedSerializer fixedSerializer) {
+                this.factory = null;
+                this.fixed = (JavaToLuaConverter<Object>) fixedSerializer.serializer();
+            } else {
+                this.factory = factory;
+                this.fixed = null;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private @Nullable JavaToLuaConverter<Object> get(EClassUse<?> use) {
+            if (factory == null) return fixed;
+
+            TypeKey key = TypeKey.of(use);
+            JavaToLuaConverter<Object> serializer = byUse.get(key);
+
+            if (serializer == null) {
+                serializer = (JavaToLuaConverter<Object>) factory.apply(use);
+
+                // A factory may decline a use, which is cached as a serializer that always declines.
+                if (serializer == null) serializer = NO_SERIALIZER;
+                putBounded(byUse, key, serializer);
+            }
+
+            return serializer;
+        }
+    }
 }
@@ -0,0 +1,79 @@
+package dev.hugeblank.allium.loader.type.invoker;
+
+import dev.hugeblank.allium.loader.type.InvalidArgumentException;
+import dev.hugeblank.allium.util.ArgumentPlan;
+import me.basiqueevangelist.enhancedreflection.api.EClass;
+import me.basiqueevangelist.enhancedreflection.api.EConstructor;
+import me.basiqueevangelist.enhancedreflection.api.EExecutable;
+import me.basiqueevangelist.enhancedreflection.api.EMethod;
+import me.basiqueevangelist.enhancedreflection.api.typeuse.EClassUse;
+import org.jetbrains.annotations.Nullable;
+import org.squiddev.cobalt.LuaError;
+import org.squiddev.cobalt.LuaState;
+import org.squiddev.cobalt.Varargs;
+
+import java.util.function.Supplier;
+
+/**
+ * Everything needed to call a method or constructor from Lua: its compiled {@link ArgumentPlan}, its declared return
+ * type and its {@link Invoker}. The invoker is only generated once the target is first called.
+ */
+public final class CallTarget {
+    private final EExecutable executable;
+    private final ArgumentPlan plan;
+    private final EClassUse<?> returnType;
+    private final Supplier<Invoker> invokerFactory;
+    private volatile Invoker invoker;
+
+    private CallTarget(EExecutable executable, EClassUse<?> returnType, Supplier<Invoker> invokerFactory) {
+        this.executable = executable;
+        this.plan = ArgumentPlan.of(executable.parameters());
+        this.returnType = returnType;
+        this.invokerFactory = invokerFactory;
+    }
+
+    public static CallTarget of(EMethod method) {
+        return new CallTarget(method, method.returnTypeUse().upperBound(), () -> InvokerGenerator.getInvoker(method));
+    }
+
+    public static CallTarget of(EClass<?> clazz, EConstructor<?> constructor) {
+        EClassUse<?> ret = (EClassUse<?>) constructor.receiverTypeUse();
+
+        if (ret == null) ret = clazz.asEmptyUse();
+
+        return new CallTarget(constructor, ret, () -> InvokerGenerator.getInvoker(constructor));
+    }
+
+    public EExecutable executable() {
+        return executable;
+    }
+
+    public ArgumentPlan plan() {
+        return plan;
+    }
+
+    public Object[] toJavaArguments(LuaState state, Varargs args, int offset) throws LuaError, InvalidArgumentException {
+        return plan.toJavaArguments(state, args, offset);
+    }
+
+    public Object @Nullable [] tryToJavaArguments(LuaState state, Varargs args, int offset) throws LuaError {
+        return plan.tryToJavaArguments(state, args, offset);
+    }
+
+    public Varargs invoke(Object instance, Object[] jargs) throws LuaError {
+        Invoker invoker = this.invoker;
+
+        if (invoker == null) {
+            invoker = invokerFactory.get();
+            this.invoker = invoker;
+        }
+
+        try { // Invoke, convert returned value, cry.
+            return invoker.invoke(instance, jargs, returnType);
+        } catch (LuaError e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new LuaError(e);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package dev.hugeblank.allium.loader.type.invoker;
+
+import me.basiqueevangelist.enhancedreflection.api.typeuse.EClassUse;
+import org.squiddev.cobalt.Varargs;
+
+/**
+ * Calls a single resolved method or constructor, converting the result straight to Lua.
+ * <p>
+ * Exceptions thrown by the target are propagated as-is rather than wrapped in an
+ * {@link java.lang.reflect.InvocationTargetException}.
+ *
+ * @see InvokerGenerator
+ */
+public interface Invoker {
+    /**
+     * @param instance the receiver, ignored for static methods and constructors
+     * @param args the already converted Java arguments
+     * @param ret the declared return type, only consulted for reference return types
+     */
+    Varargs invoke(Object instance, Object[] args, EClassUse<?> ret) throws Throwable;
+}
@@ -0,0 +1,319 @@
+package dev.hugeblank.allium.loader.type.invoker;
+
+import dev.hugeblank.allium.loader.type.coercion.TypeCoercions;
+import dev.hugeblank.allium.util.AsmUtil;
+import dev.hugeblank.allium.util.BytecodeCache;
+import me.basiqueevangelist.enhancedreflection.api.EConstructor;
+import me.basiqueevangelist.enhancedreflection.api.EMethod;
+import me.basiqueevangelist.enhancedreflection.api.typeuse.EClassUse;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.squiddev.cobalt.Constants;
+import org.squiddev.cobalt.ValueFactory;
+import org.squiddev.cobalt.Varargs;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.objectweb.asm.Opcodes.*;
+
+public class InvokerGenerator {
+    private static final String INVOKE_DESCRIPTOR = "(Ljava/lang/Object;[Ljava/lang/Object;Lme/basiqueevangelist/enhancedreflection/api/typeuse/EClassUse;)Lorg/squiddev/cobalt/Varargs;";
+    private static final String TO_LUA_VALUE_DESCRIPTOR = "(Ljava/lang/Object;Lme/basiqueevangelist/enhancedreflection/api/typeuse/EClassUse;)Lorg/squiddev/cobalt/LuaValue;";
+    private static final MethodType HANDLE_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+    // Keyed by declaring class first, so that an invoker doesn't keep the class it calls into from being unloaded
+    private static final ClassValue<ConcurrentMap<Executable, Invoker>> INVOKERS = new ClassValue<>() {
+        @Override
+        protected ConcurrentMap<Executable, Invoker> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    public static Invoker getInvoker(EMethod method) {
+        return getInvoker(method.raw());
+    }
+
+    public static Invoker getInvoker(EConstructor<?> constructor) {
+        return getInvoker(constructor.raw());
+    }
+
+    private static Invoker getInvoker(Executable executable) {
+        return INVOKERS.get(executable.getDeclaringClass()).computeIfAbsent(executable, InvokerGenerator::createInvoker);
+    }
+
+    private static Invoker createInvoker(Executable executable) {
+        Class<?> owner = executable.getDeclaringClass();
+
+        if (executable instanceof Constructor<?> && Modifier.isAbstract(owner.getModifiers())) {
+            return (instance, args, ret) -> {
+                throw new InstantiationException("Cannot instantiate abstract class " + owner.getName());
+            };
+        }
+
+        if (canInvokeDirectly(executable)) {
+            return generateInvokerClass(executable);
+        } else {
+            // Some public methods are "inaccessible" despite being public. A method handle from an accessible
+            // reflective object gets around that.
+            return createHandleInvoker(executable);
+        }
+    }
+
+    private static boolean canInvokeDirectly(Executable executable) {
+        if (!Modifier.isPublic(executable.getModifiers()) || !isAccessible(executable.getDeclaringClass()))
+            return false;
+
+        for (Class<?> param : executable.getParameterTypes()) {
+            if (!isAccessible(param)) return false;
+        }
+
+        return !(executable instanceof Method method) || isAccessible(method.getReturnType());
+    }
+
+    private static boolean isAccessible(Class<?> klass) {
+        while (klass.isArray()) klass = klass.getComponentType();
+
+        if (klass.isPrimitive()) return true;
+        if (!Modifier.isPublic(klass.getModifiers())) return false;
+
+        // Generated classes resolve everything through allium's class loader, which can't see every class.
+        try {
+            return Class.forName(klass.getName(), false, AsmUtil.class.getClassLoader()) == klass;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private static Invoker generateInvokerClass(Executable executable) {
+        String className = AsmUtil.getUniqueClassName();
+        // Invokers have no class data, so what they call is all that determines their bytes
+        Class<?> owner = executable.getDeclaringClass();
+        String signature = "invoker " + (owner.isInterface() ? "interface " : "") + Type.getInternalName(owner) + " " + Modifier.toString(executable.getModifiers()) + " "
+            + (executable instanceof Method method ? method.getName() + Type.getMethodDescriptor(method) : "<init>" + Type.getConstructorDescriptor((Constructor<?>) executable));
+
+        byte[] classBytes = BytecodeCache.get(signature, "");
+        if (classBytes == null) {
+            classBytes = writeInvokerClass(className, executable);
+            BytecodeCache.put(signature, "", classBytes);
+        }
+
+        Class<?> klass = AsmUtil.defineClass(className, classBytes);
+
+        try {
+            return (Invoker) klass.getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Couldn't create invoker for " + executable, e);
+        }
+    }
+
+    private static byte[] writeInvokerClass(String className, Executable executable) {
+        ClassWriter c = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+
+        c.visit(
+            V17,
+            ACC_PUBLIC | ACC_FINAL,
+            className,
+            null,
+            "java/lang/Object",
+            new String[] {Type.getInternalName(Invoker.class)}
+        );
+
+        var ctor = c.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        ctor.visitCode();
+        ctor.visitVarInsn(ALOAD, 0);
+        ctor.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        ctor.visitInsn(RETURN);
+        ctor.visitMaxs(0, 0);
+        ctor.visitEnd();
+
+        Class<?> owner = executable.getDeclaringClass();
+        String ownerName = Type.getInternalName(owner);
+        boolean isInterface = owner.isInterface();
+
+        var m = c.visitMethod(ACC_PUBLIC, "invoke", INVOKE_DESCRIPTOR, null, new String[] {"java/lang/Throwable"});
+        m.visitCode();
+
+        if (executable instanceof Constructor<?>) {
+            m.visitTypeInsn(NEW, ownerName);
+            m.visitInsn(DUP);
+        } else if (!Modifier.isStatic(executable.getModifiers())) {
+            m.visitVarInsn(ALOAD, 1);
+            m.visitTypeInsn(CHECKCAST, ownerName);
+        }
+
+        var params = executable.getParameterTypes();
+        for (int i = 0; i < params.length; i++) {
+            m.visitVarInsn(ALOAD, 2);
+            m.visitLdcInsn(i);
+            m.visitInsn(AALOAD);
+            unboxArgument(m, params[i]);
+        }
+
+        Class<?> returnType;
+        if (executable instanceof Method method) {
+            returnType = method.getReturnType();
+            int opcode = Modifier.isStatic(method.getModifiers()) ? INVOKESTATIC : isInterface ? INVOKEINTERFACE : INVOKEVIRTUAL;
+            m.visitMethodInsn(opcode, ownerName, method.getName(), Type.getMethodDescriptor(method), isInterface);
+        } else {
+            returnType = owner;
+            m.visitMethodInsn(INVOKESPECIAL, ownerName, "<init>", Type.getConstructorDescriptor((Constructor<?>) executable), false);
+        }
+
+        convertReturn(m, returnType);
+        m.visitInsn(ARETURN);
+
+        m.visitMaxs(0, 0);
+        m.visitEnd();
+
+        return c.toByteArray();
+    }
+
+    private static void unboxArgument(MethodVisitor m, Class<?> param) {
+        if (param == boolean.class) {
+            m.visitTypeInsn(CHECKCAST, Type.getInternalName(Boolean.class));
+            m.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(Boolean.class), "booleanValue", "()Z", false);
+        } else if (param == char.class) {
+            m.visitTypeInsn(CHECKCAST, Type.getInternalName(Character.class));
+            m.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(Character.class), "charValue", "()C", false);
+        } else if (param.isPrimitive()) {
+            // Only widening conversions are allowed, like with reflection, so a Long never silently becomes an int
+            Type type = Type.getType(param);
+            String name = "unbox" + Character.toUpperCase(param.getName().charAt(0)) + param.getName().substring(1);
+            m.visitMethodInsn(INVOKESTATIC, Type.getInternalName(InvokerGenerator.class), name, "(Ljava/lang/Object;)" + type.getDescriptor(), false);
+        } else if (param != Object.class) {
+            m.visitTypeInsn(CHECKCAST, Type.getInternalName(param));
+        }
+    }
+
+    // Called by generated invokers to unbox numeric arguments the way Method.invoke does.
+
+    public static byte unboxByte(Object value) {
+        if (value instanceof Byte b) return b;
+        throw argumentMismatch(value, byte.class);
+    }
+
+    public static short unboxShort(Object value) {
+        if (value instanceof Short s) return s;
+        if (value instanceof Byte b) return b;
+        throw argumentMismatch(value, short.class);
+    }
+
+    public static int unboxInt(Object value) {
+        if (value instanceof Integer i) return i;
+        if (value instanceof Character c) return c;
+        if (value instanceof Short s) return s;
+        if (value instanceof Byte b) return b;
+        throw argumentMismatch(value, int.class);
+    }
+
+    public static long unboxLong(Object value) {
+        if (value instanceof Long l) return l;
+        if (isIntLike(value)) return unboxInt(value);
+        throw argumentMismatch(value, long.class);
+    }
+
+    public static float unboxFloat(Object value) {
+        if (value instanceof Float f) return f;
+        if (value instanceof Long l) return l;
+        if (isIntLike(value)) return unboxInt(value);
+        throw argumentMismatch(value, float.class);
+    }
+
+    public static double unboxDouble(Object value) {
+        if (value instanceof Double d) return d;
+        if (value instanceof Float f) return f;
+        if (value instanceof Long l) return l;
+        if (isIntLike(value)) return unboxInt(value);
+        throw argumentMismatch(value, double.class);
+    }
+
+    private static boolean isIntLike(Object value) {
+        return value instanceof Integer || value instanceof Character || value instanceof Short || value instanceof Byte;
+    }
+
+    private static IllegalArgumentException argumentMismatch(Object value, Class<?> param) {
+        return new IllegalArgumentException("argument type mismatch: " + (value == null ? "null" : value.getClass().getName()) + " can't be passed as " + param.getName());
+    }
+
+    private static void convertReturn(MethodVisitor m, Class<?> returnType) {
+        if (returnType == void.class) {
+            m.visitFieldInsn(GETSTATIC, Type.getInternalName(Constants.class), "NIL", fieldDescriptor(Constants.class, "NIL"));
+        } else if (returnType == boolean.class) {
+            valueOf(m, boolean.class);
+        } else if (returnType == int.class || returnType == short.class || returnType == byte.class || returnType == char.class) {
+            valueOf(m, int.class);
+        } else if (returnType == long.class) {
+            valueOf(m, long.class);
+        } else if (returnType == float.class) {
+            m.visitInsn(F2D);
+            valueOf(m, double.class);
+        } else if (returnType == double.class) {
+            valueOf(m, double.class);
+        } else if (returnType != Varargs.class) {
+            m.visitVarInsn(ALOAD, 3);
+            m.visitMethodInsn(INVOKESTATIC, Type.getInternalName(TypeCoercions.class), "toLuaValue", TO_LUA_VALUE_DESCRIPTOR, false);
+        }
+    }
+
+    private static void valueOf(MethodVisitor m, Class<?> primitive) {
+        try {
+            var method = ValueFactory.class.getMethod("valueOf", primitive);
+            m.visitMethodInsn(INVOKESTATIC, Type.getInternalName(ValueFactory.class), "valueOf", Type.getMethodDescriptor(method), false);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("ValueFactory has no valueOf(" + primitive + ")", e);
+        }
+    }
+
+    private static String fieldDescriptor(Class<?> owner, String name) {
+        try {
+            return Type.getDescriptor(owner.getField(name).getType());
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(owner + " has no field " + name, e);
+        }
+    }
+
+    private static Invoker createHandleInvoker(Executable executable) {
+        try {
+            executable.setAccessible(true);
+
+            MethodHandle handle;
+            if (executable instanceof Method method) {
+                handle = MethodHandles.lookup().unreflect(method).asFixedArity();
+
+                if (Modifier.isStatic(method.getModifiers()))
+                    handle = MethodHandles.dropArguments(handle, 0, Object.class);
+            } else {
+                handle = MethodHandles.lookup().unreflectConstructor((Constructor<?>) executable).asFixedArity();
+                handle = MethodHandles.dropArguments(handle, 0, Object.class);
+            }
+
+            handle = handle.asSpreader(Object[].class, executable.getParameterCount()).asType(HANDLE_TYPE);
+
+            boolean returnsVarargs = executable instanceof Method method && method.getReturnType() == Varargs.class;
+            return new HandleInvoker(handle, returnsVarargs);
+        } catch (IllegalAccessException | RuntimeException e) {
+            throw new RuntimeException("Couldn't create invoker for " + executable, e);
+        }
+    }
+
+    private record HandleInvoker(MethodHandle handle, boolean returnsVarargs) implements Invoker {
+        @Override
+        public Varargs invoke(Object instance, Object[] args, EClassUse<?> ret) throws Throwable {
+            Object out = handle.invokeExact(instance, args);
+
+            if (returnsVarargs)
+                return (Varargs) out;
+            else
+                return TypeCoercions.toLuaValue(out, ret);
+        }
+    }
+}
@@ -6,13 +6,45 @@ import dev.hugeblank.allium.loader.type.coercion.TypeCoercions;
 import org.squiddev.cobalt.LuaError;
 import org.squiddev.cobalt.LuaState;
 import org.squiddev.cobalt.LuaValue;
+import org.squiddev.cobalt.ValueFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+public final class FieldData<I> implements PropertyData<I> {
+    private final EField field;
+    private final Kind kind;
+    // Bound on first use, since most fields of an indexed class are never touched.
+    private volatile Accessors accessors;
+
+    public FieldData(EField field) {
+        this.field = field;
+        this.kind = Kind.of(field.raw().getType());
+    }
+
+    public EField field() {
+        return field;
+    }
 
-public record FieldData<I>(EField field) implements PropertyData<I> {
     @Override
     public LuaValue get(String name, LuaState state, I instance, boolean noThisArg) throws LuaError {
+        Accessors accessors = getAccessors();
+
+        if (accessors.constant() != null) return accessors.constant();
+
         try {
-            return TypeCoercions.toLuaValue(field.get(instance), field.fieldTypeUse().upperBound());
-        } catch (IllegalAccessException e) {
+            return switch (kind) {
+                case INT -> ValueFactory.valueOf((int) accessors.getter().invokeExact((Object) instance));
+                case LONG -> ValueFactory.valueOf((long) accessors.getter().invokeExact((Object) instance));
+                case DOUBLE -> ValueFactory.valueOf((double) accessors.getter().invokeExact((Object) instance));
+                case BOOLEAN -> ValueFactory.valueOf((boolean) accessors.getter().invokeExact((Object) instance));
+                case OTHER -> TypeCoercions.toLuaValue((Object) accessors.getter().invokeExact((Object) instance), field.fieldTypeUse().upperBound());
+            };
+        } catch (LuaError e) {
+            throw e;
+        } catch (Throwable e) {
             throw new LuaError(e);
         }
     }
@@ -24,10 +56,82 @@ public record FieldData<I>(EField field) implements PropertyData<I> {
             return;
         }
 
+        Accessors accessors = getAccessors();
+
         try {
-            field.set(instance, TypeCoercions.toJava(state, value, field.fieldType().upperBound()));
-        } catch (InvalidArgumentException | IllegalAccessException e) {
+            Object javaValue = TypeCoercions.toJava(state, value, field.fieldType().upperBound());
+            accessors.setter().invokeExact((Object) instance, javaValue);
+        } catch (InvalidArgumentException e) {
+            throw new LuaError(e);
+        } catch (LuaError e) {
+            throw e;
+        } catch (Throwable e) {
             throw new LuaError(e);
         }
     }
+
+    private Accessors getAccessors() throws LuaError {
+        Accessors accessors = this.accessors;
+
+        if (accessors == null) {
+            try {
+                accessors = createAccessors();
+            } catch (IllegalAccessException e) {
+                throw new LuaError(e);
+            }
+
+            this.accessors = accessors;
+        }
+
+        return accessors;
+    }
+
+    private Accessors createAccessors() throws IllegalAccessException {
+        Field raw = field.raw();
+        raw.setAccessible(true);
+
+        // Everything is adapted to take the instance as an Object, even for static fields, so one shape fits all.
+        MethodHandle getter = MethodHandles.lookup().unreflectGetter(raw);
+        if (field.isStatic()) getter = MethodHandles.dropArguments(getter, 0, Object.class);
+        getter = getter.asType(MethodType.methodType(kind.type, Object.class));
+
+        LuaValue constant = null;
+        if (field.isStatic() && field.isFinal() && (raw.getType().isPrimitive() || raw.getType() == String.class)) {
+            // Static final primitives and strings can't change, so they only need to be read once.
+            constant = TypeCoercions.toLuaValue(raw.get(null), field.fieldTypeUse().upperBound());
+        }
+
+        MethodHandle setter = null;
+        if (!field.isFinal()) {
+            setter = MethodHandles.lookup().unreflectSetter(raw);
+            if (field.isStatic()) setter = MethodHandles.dropArguments(setter, 0, Object.class);
+            setter = setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+        }
+
+        return new Accessors(getter, setter, constant);
+    }
+
+    private record Accessors(MethodHandle getter, MethodHandle setter, LuaValue constant) { }
+
+    private enum Kind {
+        INT(int.class),
+        LONG(long.class),
+        DOUBLE(double.class),
+        BOOLEAN(boolean.class),
+        OTHER(Object.class);
+
+        private final Class<?> type;
+
+        Kind(Class<?> type) {
+            this.type = type;
+        }
+
+        static Kind of(Class<?> fieldType) {
+            if (fieldType == int.class || fieldType == short.class || fieldType == byte.class || fieldType == char.class) return INT;
+            if (fieldType == long.class) return LONG;
+            if (fieldType == double.class || fieldType == float.class) return DOUBLE;
+            if (fieldType == boolean.class) return BOOLEAN;
+            return OTHER;
+        }
+    }
 }
@@ -0,0 +1,154 @@
+package dev.hugeblank.allium.loader.type.property;
+
+import dev.hugeblank.allium.Allium;
+import dev.hugeblank.allium.util.AnnotationUtils;
+import dev.hugeblank.allium.util.Mappings;
+import me.basiqueevangelist.enhancedreflection.api.EClass;
+import me.basiqueevangelist.enhancedreflection.api.EField;
+import me.basiqueevangelist.enhancedreflection.api.EMethod;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * Every name Lua can use for the members of a class, inherited ones included, mapped to the members it refers to.
+ * Names are collected once per class, so looking one up doesn't go through the mappings again.
+ */
+final class MemberIndex {
+    // Keyed by raw class first, so that generated classes can still be unloaded.
+    private static final ClassValue<ConcurrentMap<EClass<?>, MemberIndex>> INDEXES = new ClassValue<>() {
+        @Override
+        protected ConcurrentMap<EClass<?>, MemberIndex> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    // Both in declaration order, which is the order members were found in before the index existed
+    private final Map<String, List<EMethod>> methods;
+    private final Map<String, List<EField>> fields;
+
+    private MemberIndex(Map<String, List<EMethod>> methods, Map<String, List<EField>> fields) {
+        this.methods = methods;
+        this.fields = fields;
+    }
+
+    static MemberIndex of(EClass<?> clazz) {
+        return INDEXES.get(clazz.raw()).computeIfAbsent(clazz, MemberIndex::create);
+    }
+
+    /**
+     * @return the methods Lua can call by this name, which aren't hidden from it
+     */
+    List<EMethod> methods(String name) {
+        return methods.getOrDefault(name, List.of());
+    }
+
+    /**
+     * @return the fields Lua can access by this name, which aren't hidden from it
+     */
+    List<EField> fields(String name) {
+        return fields.getOrDefault(name, List.of());
+    }
+
+    Map<String, List<EMethod>> methods() {
+        return methods;
+    }
+
+    Map<String, List<EField>> fields() {
+        return fields;
+    }
+
+    private static MemberIndex create(EClass<?> clazz) {
+        Map<String, Set<EMethod>> methods = new LinkedHashMap<>();
+        Map<String, Set<EField>> fields = new LinkedHashMap<>();
+
+        for (EMethod method : clazz.methods()) {
+            if (AnnotationUtils.isHiddenFromLua(method)) continue;
+
+            forEachName(clazz, method, name -> methods.computeIfAbsent(name, unused -> new LinkedHashSet<>()).add(method));
+        }
+
+        for (EField field : clazz.fields()) {
+            if (AnnotationUtils.isHiddenFromLua(field)) continue;
+
+            forEachName(clazz, field, name -> fields.computeIfAbsent(name, unused -> new LinkedHashSet<>()).add(field));
+        }
+
+        return new MemberIndex(freeze(methods), freeze(fields));
+    }
+
+    private static <T> Map<String, List<T>> freeze(Map<String, Set<T>> members) {
+        Map<String, List<T>> frozen = new LinkedHashMap<>();
+        members.forEach((name, found) -> frozen.put(name, List.copyOf(found)));
+
+        return Collections.unmodifiableMap(frozen);
+    }
+
+    private static void forEachName(EClass<?> sourceClass, EMethod method, Consumer<String> consumer) {
+        String[] altNames = AnnotationUtils.findNames(method);
+        if (altNames != null) {
+            for (String altName : altNames) {
+                consumer.accept(altName);
+            }
+
+            return;
+        }
+
+        var methodName = method.name();
+
+        consumer.accept(methodName);
+        consumer.accept("m_" + methodName);
+        if (methodName.startsWith("allium$")) {
+            consumer.accept(methodName.substring("allium$".length()));
+        }
+
+        if (methodName.startsWith("allium_private$")) {
+            return;
+        }
+
+        if (!Allium.DEVELOPMENT) {
+            consumer.accept(getYarnName(sourceClass, methodName));
+
+            for (var clazz : sourceClass.allSuperclasses()) {
+                consumer.accept(getYarnName(clazz, methodName));
+            }
+
+            for (var clazz : sourceClass.allInterfaces()) {
+                consumer.accept(getYarnName(clazz, methodName));
+            }
+        }
+    }
+
+    private static void forEachName(EClass<?> sourceClass, EField field, Consumer<String> consumer) {
+        String[] altNames = AnnotationUtils.findNames(field);
+        if (altNames != null) {
+            for (String altName : altNames) {
+                consumer.accept(altName);
+            }
+
+            return;
+        }
+
+        if (Allium.DEVELOPMENT) {
+            consumer.accept(field.name());
+        } else {
+            consumer.accept(getYarnName(sourceClass, field.name()));
+
+            for (var clazz : sourceClass.allSuperclasses()) {
+                consumer.accept(getYarnName(clazz, field.name()));
+            }
+        }
+    }
+
+    private static String getYarnName(EClass<?> owner, String memberName) {
+        String yarn = Allium.MAPPINGS.getYarn(Mappings.asMethod(owner.name(), memberName));
+        return yarn.substring(yarn.indexOf('#') + 1);
+    }
+}
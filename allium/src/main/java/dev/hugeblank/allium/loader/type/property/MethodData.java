@@ -1,5 +1,6 @@
 package dev.hugeblank.allium.loader.type.property;
 
+import dev.hugeblank.allium.loader.type.OverloadCache;
 import dev.hugeblank.allium.loader.type.UDFFunctions;
 import me.basiqueevangelist.enhancedreflection.api.EClass;
 import me.basiqueevangelist.enhancedreflection.api.EMethod;
@@ -12,11 +13,12 @@ public class MethodData<I> implements PropertyData<I> {
     private final EClass<I> sourceClass;
     public final List<EMethod> methods;
     public final UDFFunctions<I> unboundFunction;
+    private final OverloadCache overloadCache = new OverloadCache();
 
     public MethodData(EClass<I> sourceClass, List<EMethod> methods, String name, boolean isStatic) {
         this.sourceClass = sourceClass;
         this.methods = methods;
-        this.unboundFunction = new UDFFunctions<>(sourceClass, methods, name, null, isStatic);
+        this.unboundFunction = new UDFFunctions<>(sourceClass, methods, name, null, isStatic, overloadCache);
 
         methods.sort(MethodSorter.INSTANCE);
     }
@@ -24,7 +26,7 @@ public class MethodData<I> implements PropertyData<I> {
     @Override
     public LuaValue get(String name, LuaState state, I instance, boolean isBound) {
         if (isBound)
-            return new UDFFunctions<>(sourceClass, methods, name, instance, false);
+            return new UDFFunctions<>(sourceClass, methods, name, instance, false, overloadCache);
         else
             return unboundFunction;
     }
@@ -1,18 +1,18 @@
 package dev.hugeblank.allium.loader.type.property;
 
-import dev.hugeblank.allium.Allium;
 import dev.hugeblank.allium.util.AnnotationUtils;
 import me.basiqueevangelist.enhancedreflection.api.EClass;
 import me.basiqueevangelist.enhancedreflection.api.EField;
 import me.basiqueevangelist.enhancedreflection.api.EMethod;
-import dev.hugeblank.allium.util.Mappings;
 import org.apache.commons.lang3.StringUtils;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
-import java.util.function.Predicate;
 
 public final class PropertyResolver {
     private PropertyResolver() {
@@ -20,164 +20,109 @@ public final class PropertyResolver {
     }
 
     public static <T> PropertyData<? super T> resolveProperty(EClass<T> clazz, String name, boolean isStatic) {
-        List<EMethod> foundMethods = new ArrayList<>();
-
-        collectMethods(clazz, clazz.methods(), name, isStatic, foundMethods::add);
+        MemberIndex index = MemberIndex.of(clazz);
+        List<EMethod> foundMethods = filterStatic(index.methods(name), isStatic);
 
         if (foundMethods.size() > 0)
             return new MethodData<>(clazz, foundMethods, name, isStatic);
 
-        EMethod getter = findMethod(clazz, clazz.methods(), "get" + StringUtils.capitalize(name),
-            method -> AnnotationUtils.countLuaArguments(method) == 0 && (!isStatic || method.isStatic()));
+        EMethod getter = findAccessor(index.methods("get" + StringUtils.capitalize(name)), 0, isStatic);
 
         if (getter != null) {
-            EMethod setter = findMethod(clazz, clazz.methods(), "set" + StringUtils.capitalize(name),
-                method -> AnnotationUtils.countLuaArguments(method) == 1 && (!isStatic || method.isStatic()));
+            EMethod setter = findAccessor(index.methods("set" + StringUtils.capitalize(name)), 1, isStatic);
 
             return new PropertyMethodData<>(getter, setter);
         }
 
-        EField field = findField(clazz, clazz.fields(), name, isStatic);
-
-        if (field != null)
-            return new FieldData<>(field);
+        for (EField field : index.fields(name)) {
+            if (!isStatic || field.isStatic())
+                return new FieldData<>(field);
+        }
 
         return EmptyData.INSTANCE;
     }
 
-    public static void collectMethods(EClass<?> sourceClass, Collection<EMethod> methods, String name, boolean staticOnly, Consumer<EMethod> consumer) {
-        methods.forEach((method -> {
-            if (AnnotationUtils.isHiddenFromLua(method)) return;
-            if (staticOnly && !method.isStatic()) return;
-
-            String[] altNames = AnnotationUtils.findNames(method);
-            if (altNames != null) {
-                for (String altName : altNames) {
-                    if (altName.equals(name)) {
-                        consumer.accept(method);
-                    }
-                }
-
-                return;
+    /**
+     * Resolves every property of a class in one pass over its members, instead of one pass per name.
+     * Each key maps to what {@link #resolveProperty(EClass, String, boolean)} returns for it. The only names left out
+     * are getters written with unusual capitalization, and names that resolve to {@link EmptyData}.
+     */
+    public static <T> Map<String, PropertyData<? super T>> resolveProperties(EClass<T> clazz, boolean isStatic) {
+        MemberIndex index = MemberIndex.of(clazz);
+        Map<String, PropertyData<? super T>> properties = new HashMap<>();
+        Map<String, EMethod> getters = new LinkedHashMap<>();
+
+        index.methods().forEach((name, methods) -> {
+            List<EMethod> found = filterStatic(methods, isStatic);
+            if (found.isEmpty()) return;
+
+            properties.put(name, new MethodData<>(clazz, found, name, isStatic));
+
+            if (name.startsWith("get")) {
+                EMethod getter = findAccessor(found, 0, isStatic);
+                if (getter != null) getters.put(name, getter);
             }
+        });
 
-            var methodName = method.name();
+        getters.forEach((getterName, getter) -> {
+            String suffix = getterName.substring(3);
 
-            if (methodName.equals(name) || methodName.equals("allium$" + name) || name.equals("m_" + methodName)) {
-                consumer.accept(method);
+            // Whatever capitalizes to the part after "get", which is the suffix itself or the suffix with a lowercase first letter.
+            for (String name : new String[] { suffix, StringUtils.uncapitalize(suffix) }) {
+                if (name.isEmpty() || !StringUtils.capitalize(name).equals(suffix) || properties.containsKey(name)) continue;
+
+                properties.put(name, new PropertyMethodData<>(getter, findAccessor(index.methods("set" + suffix), 1, isStatic)));
             }
+        });
+
+        index.fields().forEach((name, fields) -> {
+            for (EField field : fields) {
+                if (isStatic && !field.isStatic()) continue;
 
-            if (methodName.startsWith("allium_private$")) {
+                properties.putIfAbsent(name, new FieldData<>(field));
                 return;
             }
+        });
 
-            if (!Allium.DEVELOPMENT) {
-                var mappedName = Allium.MAPPINGS.getYarn(Mappings.asMethod(sourceClass, method)).split("#")[1];
-                if (mappedName.equals(name) || mappedName.equals("m_" + methodName)) {
-                    consumer.accept(method);
-                }
-
-                for (var clazz : sourceClass.allSuperclasses()) {
-                    mappedName = Allium.MAPPINGS.getYarn(Mappings.asMethod(clazz, method)).split("#")[1];
-                    if (mappedName.equals(name) || mappedName.equals("m_" + methodName)) {
-                        consumer.accept(method);
-                    }
-                }
-
-                for (var clazz : sourceClass.allInterfaces()) {
-                    mappedName = Allium.MAPPINGS.getYarn(Mappings.asMethod(clazz, method)).split("#")[1];
-                    if (mappedName.equals(name) || mappedName.equals("m_" + methodName)) {
-                        consumer.accept(method);
-                    }
-                }
-            }
-        }));
+        return properties;
     }
 
-    public static EMethod findMethod(EClass<?> sourceClass, List<EMethod> methods, String name, Predicate<EMethod> filter) {
+    /**
+     * @return a copy of these methods that {@link MethodData} can sort, leaving out instance methods if asked to
+     */
+    private static List<EMethod> filterStatic(List<EMethod> methods, boolean staticOnly) {
+        List<EMethod> found = new ArrayList<>(methods.size());
         for (EMethod method : methods) {
-            if (AnnotationUtils.isHiddenFromLua(method)) continue;
-            if (!filter.test(method)) continue;
-
-            String[] altNames = AnnotationUtils.findNames(method);
-            if (altNames != null) {
-                for (String altName : altNames) {
-                    if (altName.equals(name)) {
-                        return method;
-                    }
-                }
-
-                continue;
-            }
+            if (!staticOnly || method.isStatic()) found.add(method);
+        }
 
-            var methodName = method.name();
+        return found;
+    }
 
-            if (methodName.equals(name) || methodName.equals("allium$" + name) || name.equals("m_" + methodName)) {
+    /**
+     * @return the first of these methods that can be a getter or setter taking this many arguments, or null
+     */
+    private static EMethod findAccessor(List<EMethod> methods, int luaArguments, boolean staticOnly) {
+        for (EMethod method : methods) {
+            if (AnnotationUtils.countLuaArguments(method) == luaArguments && (!staticOnly || method.isStatic()))
                 return method;
-            }
-
-            if (methodName.startsWith("allium_private$")) {
-                continue;
-            }
-
-            if (!Allium.DEVELOPMENT) {
-                var mappedName = Allium.MAPPINGS.getYarn(Mappings.asMethod(sourceClass, method)).split("#")[1];
-                if (mappedName.equals(name) || mappedName.equals("m_" + methodName)) {
-                    return method;
-                }
-
-                for (var clazz : sourceClass.allSuperclasses()) {
-                    mappedName = Allium.MAPPINGS.getYarn(Mappings.asMethod(clazz, method)).split("#")[1];
-                    if (mappedName.equals(name) || mappedName.equals("m_" + methodName)) {
-                        return method;
-                    }
-                }
-
-                for (var clazz : sourceClass.allInterfaces()) {
-                    mappedName = Allium.MAPPINGS.getYarn(Mappings.asMethod(clazz, method)).split("#")[1];
-                    if (mappedName.equals(name) || mappedName.equals("m_" + methodName)) {
-                        return method;
-                    }
-                }
-            }
         }
 
         return null;
     }
 
-    public static EField findField(EClass<?> sourceClass, Collection<EField> fields, String name, boolean staticOnly) {
-        for (var field : fields) {
-            if (AnnotationUtils.isHiddenFromLua(field)) continue;
-            if (staticOnly && !field.isStatic()) continue;
-
-            String[] altNames = AnnotationUtils.findNames(field);
-            if (altNames != null) {
-                for (String altName : altNames) {
-                    if (altName.equals(name)) {
-                        return field;
-                    }
-                }
+    /**
+     * Passes on each of these methods that Lua can call by this name. Methods declared outside of the source class are
+     * matched by the names their own class gives them.
+     */
+    public static void collectMethods(EClass<?> sourceClass, Collection<EMethod> methods, String name, boolean staticOnly, Consumer<EMethod> consumer) {
+        List<EMethod> named = MemberIndex.of(sourceClass).methods(name);
 
-                continue;
-            }
+        for (EMethod method : methods) {
+            if (staticOnly && !method.isStatic()) continue;
 
-            if (Allium.DEVELOPMENT) {
-                if (field.name().equals(name)) {
-                    return field;
-                }
-            } else {
-                if (Allium.MAPPINGS.getYarn(Mappings.asMethod(sourceClass, field)).split("#")[1].equals(name)) {
-                    return field;
-                }
-
-                for (var clazz : sourceClass.allSuperclasses()) {
-                    if (Allium.MAPPINGS.getYarn(Mappings.asMethod(clazz, field)).split("#")[1].equals(name)) {
-                        return field;
-                    }
-                }
-            }
+            if (named.contains(method) || MemberIndex.of(method.declaringClass()).methods(name).contains(method))
+                consumer.accept(method);
         }
-
-        return null;
     }
 }
@@ -0,0 +1,271 @@
+package dev.hugeblank.allium.util;
+
+import dev.hugeblank.allium.loader.type.InvalidArgumentException;
+import dev.hugeblank.allium.loader.type.annotation.LuaArgs;
+import dev.hugeblank.allium.loader.type.annotation.LuaStateArg;
+import dev.hugeblank.allium.loader.type.annotation.OptionalArg;
+import dev.hugeblank.allium.loader.type.coercion.TypeCoercions;
+import dev.hugeblank.allium.loader.type.coercion.TypeCoercions.CompiledConverter;
+import me.basiqueevangelist.enhancedreflection.api.EParameter;
+import org.jetbrains.annotations.Nullable;
+import org.squiddev.cobalt.LuaError;
+import org.squiddev.cobalt.LuaState;
+import org.squiddev.cobalt.LuaTable;
+import org.squiddev.cobalt.LuaValue;
+import org.squiddev.cobalt.Varargs;
+
+import java.util.List;
+
+/**
+ * Converts Lua arguments into the Java arguments of one parameter list. Annotations, parameter types and converters
+ * are all looked up once when the plan is created.
+ */
+public final class ArgumentPlan {
+    private final List<EParameter> parameters;
+    private final ParameterConverter[] converters;
+    private final int minArgs;
+    private final int maxArgs;
+
+    private ArgumentPlan(List<EParameter> parameters) {
+        this.parameters = parameters;
+        this.converters = new ParameterConverter[parameters.size()];
+
+        int min = 0;
+        int max = 0;
+        for (int i = 0; i < converters.length; i++) {
+            EParameter param = parameters.get(i);
+
+            if (param.hasAnnotation(LuaStateArg.class)) {
+                converters[i] = param.parameterType().upperBound().raw().equals(LuaState.class)
+                    ? StateConverter.INSTANCE
+                    : new InvalidConverter("@ProvideLuaState parameter must take LuaState!");
+            } else if (param.hasAnnotation(LuaArgs.class)) {
+                converters[i] = param.parameterType().upperBound().raw().equals(Varargs.class)
+                    ? LuaArgsConverter.INSTANCE
+                    : new InvalidConverter("@LuaArgs parameter must take Varargs!");
+                max = Integer.MAX_VALUE;
+            } else if (param.isVarArgs()) {
+                converters[i] = new VarArgsConverter(TypeCoercions.getConverter(param.parameterType().upperBound()));
+                max = Integer.MAX_VALUE;
+            } else {
+                boolean optional = param.hasAnnotation(OptionalArg.class);
+                converters[i] = new PositionalConverter(TypeCoercions.getConverter(param.parameterType().upperBound()), optional);
+
+                if (!optional) min++;
+                if (max != Integer.MAX_VALUE) max++;
+            }
+        }
+
+        this.minArgs = min;
+        this.maxArgs = max;
+    }
+
+    public static ArgumentPlan of(List<EParameter> parameters) {
+        return new ArgumentPlan(parameters);
+    }
+
+    public List<EParameter> parameters() {
+        return parameters;
+    }
+
+    /**
+     * @return the least amount of Lua arguments this plan can accept
+     */
+    public int minArgs() {
+        return minArgs;
+    }
+
+    /**
+     * @return the most Lua arguments this plan can accept, or {@link Integer#MAX_VALUE} if it takes any amount
+     */
+    public int maxArgs() {
+        return maxArgs;
+    }
+
+    public boolean acceptsCount(int count) {
+        return count >= minArgs && count <= maxArgs;
+    }
+
+    /**
+     * Estimates how well the given arguments fit this parameter list without converting them.
+     *
+     * @return the sum of every parameter's {@link CompiledConverter#score(LuaValue)}, or {@link CompiledConverter#SCORE_NONE}
+     * if the arguments can't possibly match
+     */
+    public int score(Varargs args, final int offset) {
+        int count = args.count();
+
+        if (!acceptsCount(count - offset + 1)) return CompiledConverter.SCORE_NONE;
+
+        int total = 0;
+        int luaOffset = offset;
+        for (ParameterConverter converter : converters) {
+            int score = converter.score(args, luaOffset);
+
+            if (score == CompiledConverter.SCORE_NONE) return CompiledConverter.SCORE_NONE;
+            total += score;
+            luaOffset = converter.advance(args, luaOffset);
+        }
+
+        return luaOffset == count + 1 ? total : CompiledConverter.SCORE_NONE;
+    }
+
+    public Object[] toJavaArguments(LuaState state, Varargs args, final int offset) throws LuaError, InvalidArgumentException {
+        int count = args.count();
+
+        if (count - offset + 1 < minArgs)
+            throw new InvalidArgumentException("Not enough arguments!");
+        if (count - offset + 1 > maxArgs)
+            throw new InvalidArgumentException("Too many arguments!");
+
+        for (ParameterConverter converter : converters) {
+            if (converter instanceof InvalidConverter invalid)
+                throw new InvalidArgumentException(invalid.message());
+        }
+
+        Object[] arguments = tryToJavaArguments(state, args, offset);
+
+        if (arguments == null)
+            throw new InvalidArgumentException("Couldn't convert arguments to " + ArgumentUtils.paramsToPrettyString(parameters));
+
+        return arguments;
+    }
+
+    /**
+     * Same as {@link #toJavaArguments(LuaState, Varargs, int)}, but doesn't throw when the arguments don't match.
+     *
+     * @return the converted arguments, or null if they don't fit this parameter list
+     */
+    public Object @Nullable [] tryToJavaArguments(LuaState state, Varargs args, final int offset) throws LuaError {
+        int count = args.count();
+
+        if (!acceptsCount(count - offset + 1)) return null;
+
+        Object[] arguments = new Object[converters.length];
+
+        int luaOffset = offset;
+        for (int i = 0; i < converters.length; i++) {
+            ParameterConverter converter = converters[i];
+            Object argument = converter.tryConvert(state, args, luaOffset);
+
+            if (argument == TypeCoercions.NO_MATCH) return null;
+            arguments[i] = argument;
+            luaOffset = converter.advance(args, luaOffset);
+        }
+
+        return luaOffset == count + 1 ? arguments : null;
+    }
+
+    private interface ParameterConverter {
+        int score(Varargs args, int luaOffset);
+
+        /**
+         * @return the converted argument, or {@link TypeCoercions#NO_MATCH} if it can't be converted
+         */
+        Object tryConvert(LuaState state, Varargs args, int luaOffset) throws LuaError;
+
+        int advance(Varargs args, int luaOffset);
+    }
+
+    private static final class StateConverter implements ParameterConverter {
+        private static final StateConverter INSTANCE = new StateConverter();
+
+        @Override
+        public int score(Varargs args, int luaOffset) {
+            return CompiledConverter.SCORE_EXACT;
+        }
+
+        @Override
+        public Object tryConvert(LuaState state, Varargs args, int luaOffset) {
+            return state;
+        }
+
+        @Override
+        public int advance(Varargs args, int luaOffset) {
+            return luaOffset;
+        }
+    }
+
+    private static final class LuaArgsConverter implements ParameterConverter {
+        private static final LuaArgsConverter INSTANCE = new LuaArgsConverter();
+
+        @Override
+        public int score(Varargs args, int luaOffset) {
+            return CompiledConverter.SCORE_EXACT;
+        }
+
+        @Override
+        public Object tryConvert(LuaState state, Varargs args, int luaOffset) {
+            return args.subargs(luaOffset);
+        }
+
+        @Override
+        public int advance(Varargs args, int luaOffset) {
+            return args.count() + 1;
+        }
+    }
+
+    private record VarArgsConverter(CompiledConverter converter) implements ParameterConverter {
+        @Override
+        public int score(Varargs args, int luaOffset) {
+            return CompiledConverter.SCORE_COERCED;
+        }
+
+        @Override
+        public Object tryConvert(LuaState state, Varargs args, int luaOffset) throws LuaError {
+            Varargs sub = args.subargs(luaOffset);
+            LuaTable table = new LuaTable();
+
+            for (int i = 0; i < sub.count(); i++) {
+                table.rawset(i + 1, sub.arg(i + 1));
+            }
+
+            return converter.tryFromLua(state, table);
+        }
+
+        @Override
+        public int advance(Varargs args, int luaOffset) {
+            return args.count() + 1;
+        }
+    }
+
+    private record PositionalConverter(CompiledConverter converter, boolean optional) implements ParameterConverter {
+        @Override
+        public int score(Varargs args, int luaOffset) {
+            if (luaOffset > args.count())
+                return optional ? CompiledConverter.SCORE_LOOSE : CompiledConverter.SCORE_NONE;
+
+            return converter.score(args.arg(luaOffset));
+        }
+
+        @Override
+        public Object tryConvert(LuaState state, Varargs args, int luaOffset) throws LuaError {
+            if (luaOffset > args.count())
+                return optional ? null : TypeCoercions.NO_MATCH;
+
+            return converter.tryFromLua(state, args.arg(luaOffset));
+        }
+
+        @Override
+        public int advance(Varargs args, int luaOffset) {
+            return luaOffset > args.count() ? luaOffset : luaOffset + 1;
+        }
+    }
+
+    private record InvalidConverter(String message) implements ParameterConverter {
+        @Override
+        public int score(Varargs args, int luaOffset) {
+            return CompiledConverter.SCORE_NONE;
+        }
+
+        @Override
+        public Object tryConvert(LuaState state, Varargs args, int luaOffset) {
+            return TypeCoercions.NO_MATCH;
+        }
+
+        @Override
+        public int advance(Varargs args, int luaOffset) {
+            return luaOffset;
+        }
+    }
+}
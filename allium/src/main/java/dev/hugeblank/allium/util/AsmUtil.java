@@ -1,12 +1,15 @@
 package dev.hugeblank.allium.util;
 
 import dev.hugeblank.allium.Allium;
+import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.*;
 import org.objectweb.asm.util.CheckClassAdapter;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.objectweb.asm.Opcodes.*;
@@ -14,12 +17,24 @@ import static org.objectweb.asm.Opcodes.*;
 public class AsmUtil {
     private static final AtomicInteger NEXT_CLASS_ID = new AtomicInteger();
     public static final Handle LAMBDA_METAFACTORY = new Handle(H_INVOKESTATIC, "java/lang/invoke/LambdaMetafactory", "metafactory", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;", false);
+    public static final Handle CLASS_DATA_AT = new Handle(H_INVOKESTATIC, "java/lang/invoke/MethodHandles", "classDataAt", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;I)Ljava/lang/Object;", false);
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
 
     public static String getUniqueClassName() {
-        return "allium/GeneratedClass_" + NEXT_CLASS_ID.incrementAndGet();
+        // Hidden classes have to be in the same package as the lookup that defines them
+        return AsmUtil.class.getPackageName().replace('.', '/') + "/GeneratedClass_" + NEXT_CLASS_ID.incrementAndGet();
     }
 
     public static Class<?> defineClass(String name, byte[] bytes) {
+        return defineClass(name, bytes, null);
+    }
+
+    /**
+     * Defines a hidden class, which can be unloaded as soon as nothing uses it anymore.
+     *
+     * @param classData the values the class loads through {@link #CLASS_DATA_AT}, or null if it has none
+     */
+    public static Class<?> defineClass(String name, byte[] bytes, @Nullable List<?> classData) {
         if (Allium.DEVELOPMENT) {
             Path classPath = Allium.DUMP_DIRECTORY.resolve(name + ".class");
 
@@ -34,18 +49,14 @@ public class AsmUtil {
             cr.accept(new CheckClassAdapter(new ClassVisitor(Opcodes.ASM9) { }), 0);
         }
 
-        return DefiningClassLoader.INSTANCE.defineClass(name.replace('/', '.'), bytes);
-    }
-
-    private static class DefiningClassLoader extends ClassLoader {
-        public static final DefiningClassLoader INSTANCE = new DefiningClassLoader(DefiningClassLoader.class.getClassLoader());
-
-        public DefiningClassLoader(ClassLoader parent) {
-            super(parent);
-        }
+        try {
+            MethodHandles.Lookup lookup = classData == null
+                ? LOOKUP.defineHiddenClass(bytes, true)
+                : LOOKUP.defineHiddenClassWithClassData(bytes, classData, true);
 
-        public Class<?> defineClass(String name, byte[] bytes) {
-            return defineClass(name, bytes, 0, bytes.length);
+            return lookup.lookupClass();
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Couldn't define class " + name, e);
         }
     }
 
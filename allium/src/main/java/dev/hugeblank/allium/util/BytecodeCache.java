@@ -0,0 +1,198 @@
+package dev.hugeblank.allium.util;
+
+import dev.hugeblank.allium.Allium;
+import net.minecraft.MinecraftVersion;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.stream.Stream;
+
+/**
+ * Generated class bytes from earlier runs, kept under the config directory so the same classes aren't generated again
+ * on every start. Entries are addressed by a hash of everything that determines their contents, and the whole cache
+ * is dropped whenever allium, Minecraft or the mappings change. Generators living in other mods have to put their own
+ * version into the signature.
+ */
+public final class BytecodeCache {
+    private static final Path DIRECTORY = FileHelper.CONFIG_DIR.resolve("bytecode_cache");
+    private static final Path STAMP_FILE = DIRECTORY.resolve("stamp.txt");
+    private static final int MAGIC = 0xA111C1A5;
+    private static final int DIGEST_LENGTH = 32;
+
+    private static volatile @Nullable Boolean enabled;
+
+    private BytecodeCache() {
+
+    }
+
+    /**
+     * @return whether entries are read and written at all. When they aren't, there's no point in collecting a layout.
+     */
+    public static boolean isEnabled() {
+        Boolean enabled = BytecodeCache.enabled;
+
+        if (enabled == null) {
+            synchronized (BytecodeCache.class) {
+                enabled = BytecodeCache.enabled;
+
+                if (enabled == null) {
+                    // Generators change without the version changing during development, so don't trust old output.
+                    enabled = !Allium.DEVELOPMENT && validate();
+                    BytecodeCache.enabled = enabled;
+                }
+            }
+        }
+
+        return enabled;
+    }
+
+    /**
+     * @param signature everything the class bytes depend on, apart from the class data, including the version of the
+     *                  generating mod if that isn't allium
+     * @param layout    how the class data is laid out. Bytes written for a different layout aren't returned.
+     * @return the bytes of a class written in an earlier run, or null if there aren't any
+     */
+    public static byte @Nullable [] get(String signature, String layout) {
+        if (!isEnabled()) return null;
+
+        Entry entry = read(getFile(signature));
+        return entry != null && entry.layout().equals(layout) ? entry.bytes() : null;
+    }
+
+    public static void put(String signature, String layout, byte[] bytes) {
+        if (isEnabled()) write(getFile(signature), new Entry(layout, bytes));
+    }
+
+    /**
+     * @return a visitor that ignores everything, for running a class writer only for its side effects
+     */
+    public static ClassVisitor discardingVisitor() {
+        return new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+                return new FieldVisitor(Opcodes.ASM9) { };
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM9) { };
+            }
+        };
+    }
+
+    /**
+     * Clears the cache if it was made for a different allium, Minecraft or set of mappings.
+     *
+     * @return whether the cache can be used
+     */
+    private static boolean validate() {
+        try {
+            String stamp = Allium.VERSION + "\n" + MinecraftVersion.create().getName() + "\n" + YarnLoader.getMappingsStamp();
+
+            if (Files.isRegularFile(STAMP_FILE) && Files.readString(STAMP_FILE).equals(stamp)) return true;
+
+            if (Files.isDirectory(DIRECTORY)) {
+                try (Stream<Path> files = Files.list(DIRECTORY)) {
+                    for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+                }
+            }
+
+            Files.createDirectories(DIRECTORY);
+            Files.writeString(STAMP_FILE, stamp);
+            return true;
+        } catch (IOException e) {
+            Allium.LOGGER.warn("Couldn't set up the bytecode cache, classes will be generated every time", e);
+            return false;
+        }
+    }
+
+    private static Path getFile(String signature) {
+        return DIRECTORY.resolve(HexFormat.of().formatHex(sha256(signature.getBytes(StandardCharsets.UTF_8))) + ".bin");
+    }
+
+    private static @Nullable Entry read(Path file) {
+        if (!Files.isRegularFile(file)) return null;
+
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            long size = Files.size(file);
+
+            if (in.readInt() == MAGIC) {
+                byte[] digest = in.readNBytes(DIGEST_LENGTH);
+                byte[] layout = readChunk(in, size);
+                byte[] bytes = readChunk(in, size);
+
+                if (layout != null && bytes != null && in.read() == -1 && Arrays.equals(digest, sha256(layout, bytes)))
+                    return new Entry(new String(layout, StandardCharsets.UTF_8), bytes);
+            }
+        } catch (IOException e) {
+            // Treated like any other corrupt entry
+        }
+
+        Allium.LOGGER.warn("Discarding corrupt bytecode cache entry " + file.getFileName());
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) { }
+
+        return null;
+    }
+
+    /**
+     * @return the next length prefixed chunk, or null if its length can't be right
+     */
+    private static byte @Nullable [] readChunk(DataInputStream in, long fileSize) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > fileSize) return null;
+
+        byte[] chunk = in.readNBytes(length);
+        return chunk.length == length ? chunk : null;
+    }
+
+    private static void write(Path file, Entry entry) {
+        byte[] layout = entry.layout().getBytes(StandardCharsets.UTF_8);
+
+        try {
+            // Written to the side and moved into place, so a crash can't leave a half written entry behind
+            Path temp = Files.createTempFile(DIRECTORY, "entry", ".tmp");
+
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+                out.writeInt(MAGIC);
+                out.write(sha256(layout, entry.bytes()));
+                out.writeInt(layout.length);
+                out.write(layout);
+                out.writeInt(entry.bytes().length);
+                out.write(entry.bytes());
+            }
+
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Allium.LOGGER.warn("Couldn't write bytecode cache entry " + file.getFileName(), e);
+        }
+    }
+
+    private static byte[] sha256(byte[]... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (byte[] part : parts) digest.update(part);
+
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+
+    private record Entry(String layout, byte[] bytes) { }
+}
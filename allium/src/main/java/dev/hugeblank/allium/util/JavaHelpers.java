@@ -5,18 +5,30 @@ import dev.hugeblank.allium.loader.type.AlliumUserdata;
 import me.basiqueevangelist.enhancedreflection.api.EClass;
 import org.squiddev.cobalt.*;
 
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class JavaHelpers {
-    private static final Set<String> AUTO_COMPLETE = Set.of("", "java.util", "java.lang");
+    // Packages searched, in order, for class names that aren't fully qualified. The empty one takes names as they are.
+    private static final CopyOnWriteArrayList<String> AUTO_COMPLETE = new CopyOnWriteArrayList<>(List.of("", "java.util", "java.lang"));
+    private static final ClassLoader LOADER = JavaHelpers.class.getClassLoader();
 
-    private static final Map<String, String> CACHED_AUTO_COMPLETE = new HashMap<>();
+    // Names as Lua wrote them, mapped to the binary name they resolved to, or to MISSING if they didn't resolve
+    private static final Map<String, String> CACHED_AUTO_COMPLETE = new ConcurrentHashMap<>();
+    private static final String MISSING = "";
+    private static final int MAX_CACHED_MISSES = 1024;
+    // Only misses count towards the limit, since every hit is a class that exists
+    private static final AtomicInteger CACHED_MISSES = new AtomicInteger();
 
     public static void addAutoComplete(String prefix) {
-        //noinspection DataFlowIssue
-        AUTO_COMPLETE.add(prefix);
+        if (AUTO_COMPLETE.addIfAbsent(prefix)) {
+            // Names that weren't found before might be in the new package
+            CACHED_AUTO_COMPLETE.values().removeIf(MISSING::equals);
+            CACHED_MISSES.set(0);
+        }
     }
 
 
@@ -34,35 +46,46 @@ public class JavaHelpers {
     public static EClass<?> getRawClass(String className) throws LuaError {
         var cachedClassName = CACHED_AUTO_COMPLETE.get(className);
 
-        if (cachedClassName != null) {
-            try {
-                return EClass.fromJava(Class.forName(cachedClassName));
-            } catch (ClassNotFoundException ignored) {
+        if (cachedClassName == null) {
+            cachedClassName = findClassName(className);
 
+            if (!cachedClassName.equals(MISSING)) {
+                CACHED_AUTO_COMPLETE.put(className, cachedClassName);
+            } else if (CACHED_MISSES.get() < MAX_CACHED_MISSES && CACHED_AUTO_COMPLETE.putIfAbsent(className, MISSING) == null) {
+                CACHED_MISSES.incrementAndGet();
             }
         }
 
-        for (var auto : AUTO_COMPLETE) {
+        if (!cachedClassName.equals(MISSING)) {
             try {
-                cachedClassName = Allium.MAPPINGS.getIntermediary(auto + className).get(0);
-                var clazz = EClass.fromJava(Class.forName(cachedClassName));
-                CACHED_AUTO_COMPLETE.put(className, cachedClassName);
-                return clazz;
-            } catch (ClassNotFoundException ignored) {
-
+                return EClass.fromJava(Class.forName(cachedClassName, true, LOADER));
+            } catch (ClassNotFoundException | LinkageError e) {
+                throw new LuaError("Couldn't load class \"" + className + "\": " + e);
             }
+        }
 
-            try {
-                cachedClassName = auto + className;
-                var clazz = EClass.fromJava(Class.forName(cachedClassName));
-                CACHED_AUTO_COMPLETE.put(className, cachedClassName);
-                return clazz;
-            } catch (ClassNotFoundException ignored) {
+        throw new LuaError("Couldn't find class \"" + className + "\"");
+    }
 
-            }
+    /**
+     * Finds the class a name refers to by looking for its class file, so names that don't exist cost no exceptions.
+     *
+     * @return the binary name of the class, or {@link #MISSING}
+     */
+    private static String findClassName(String className) {
+        for (var auto : AUTO_COMPLETE) {
+            String name = auto.isEmpty() ? className : auto + "." + className;
+            String intermediary = Allium.MAPPINGS.getIntermediary(name).get(0);
+
+            if (hasClassFile(intermediary)) return intermediary;
+            if (hasClassFile(name)) return name;
         }
 
-        throw new LuaError("Couldn't find class \"" + className + "\"");
+        return MISSING;
+    }
+
+    private static boolean hasClassFile(String name) {
+        return LOADER.getResource(name.replace('.', '/') + ".class") != null;
     }
 
     public static EClass<?> asClass(LuaValue value) throws LuaError {
@@ -0,0 +1,453 @@
+package dev.hugeblank.allium.util;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Intermediary to yarn names in a binary layout that's searched in place, so it can be memory mapped straight from
+ * disk. Members are grouped under their class, so a class name is stored once instead of once per member, and other
+ * repeated names are only stored once too. Strings are only decoded for the results of a lookup.
+ * <p>
+ * Layout, big endian. Names are offsets of strings in the pool, or -1 if there isn't one:
+ * <pre>
+ * int MAGIC, int VERSION, int classCount, int memberCount, int yarnCount
+ * (int name, int yarn, int firstMember, int memberCount)[classCount]  sorted by name
+ * (int class, int name, int yarnOwner, int yarnName)[memberCount]     grouped by class, then sorted by name
+ * int[yarnCount]               member indices, and class indices as ~index, sorted by yarn name
+ * (int length, byte[length])*  UTF-8 strings
+ * </pre>
+ * Strings are compared as unsigned bytes, which for UTF-8 is the same order as comparing code points.
+ */
+final class MappingTable {
+    private static final int MAGIC = 0xA111A3A9;
+    private static final int VERSION = 2;
+    private static final int HEADER = 20;
+    private static final int CLASS_SIZE = 16;
+    private static final int MEMBER_SIZE = 16;
+
+    private final ByteBuffer buffer;
+    private final int classCount;
+    private final int memberCount;
+    private final int yarnCount;
+    private final int members;
+    private final int byYarn;
+
+    private MappingTable(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.classCount = buffer.getInt(8);
+        this.memberCount = buffer.getInt(12);
+        this.yarnCount = buffer.getInt(16);
+        this.members = HEADER + classCount * CLASS_SIZE;
+        this.byYarn = members + memberCount * MEMBER_SIZE;
+    }
+
+    static MappingTable of(Map<String, String> intermediary2yarn) {
+        Builder builder = new Builder();
+
+        intermediary2yarn.forEach((key, value) -> {
+            int split = key.indexOf('#');
+
+            if (split < 0) {
+                builder.addClass(key, value);
+            } else {
+                int valueSplit = value.indexOf('#');
+
+                builder.addMember(key.substring(0, split), key.substring(split + 1),
+                    valueSplit < 0 ? value : value.substring(0, valueSplit),
+                    valueSplit < 0 ? null : value.substring(valueSplit + 1)
+                );
+            }
+        });
+
+        return builder.build();
+    }
+
+    /**
+     * Maps a table written by {@link #write(Path)} into memory.
+     */
+    static MappingTable read(Path file) throws IOException {
+        ByteBuffer buffer;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+
+            // Checked before mapping, since some platforms won't replace a file while it's mapped
+            if (channel.read(header, 0) < HEADER || header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+                throw new IOException("Not a mapping table: " + file.getFileName());
+
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int classCount = buffer.getInt(8);
+        int memberCount = buffer.getInt(12);
+        int yarnCount = buffer.getInt(16);
+
+        if (classCount < 0 || memberCount < 0 || yarnCount < 0 || HEADER + (long) classCount * CLASS_SIZE + (long) memberCount * MEMBER_SIZE + yarnCount * 4L > buffer.capacity())
+            throw new IOException("Truncated mapping table: " + file.getFileName());
+
+        MappingTable table = new MappingTable(buffer);
+
+        // Lookups trust the offsets, so make sure they all point at a whole string before using any of them
+        if (!table.isValid()) throw new IOException("Corrupt mapping table: " + file.getFileName());
+
+        return table;
+    }
+
+    /**
+     * Writes the table next to its destination and moves it into place, so readers never see part of a table.
+     */
+    void write(Path file) throws IOException {
+        Path temp = Files.createTempFile(file.getParent(), "mappings", ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer contents = buffer.duplicate().clear();
+            while (contents.hasRemaining()) channel.write(contents);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the yarn name for an intermediary class or member name, or null if there isn't one
+     */
+    @Nullable String getYarn(String intermediary) {
+        int split = intermediary.indexOf('#');
+        int owner = findClass(split < 0 ? intermediary : intermediary.substring(0, split));
+
+        if (owner < 0) return null;
+
+        if (split < 0) {
+            int yarn = classInt(owner, 4);
+            return yarn < 0 ? null : readString(yarn);
+        }
+
+        byte[] name = intermediary.substring(split + 1).getBytes(StandardCharsets.UTF_8);
+        int low = classInt(owner, 8);
+        int high = low + classInt(owner, 12) - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(memberInt(mid, 4), -1, name);
+
+            if (cmp < 0) low = mid + 1;
+            else if (cmp > 0) high = mid - 1;
+            else return joinStrings(memberInt(mid, 8), memberInt(mid, 12));
+        }
+
+        return null;
+    }
+
+    /**
+     * @return every intermediary name that maps to a yarn class or member name, classes first
+     */
+    List<String> getIntermediary(String yarn) {
+        byte[] value = yarn.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = yarnCount;
+
+        // Finds the first entry with this yarn name, since there can be more than one
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (compareYarn(yarnEntry(mid), value) < 0) low = mid + 1;
+            else high = mid;
+        }
+
+        List<String> result = List.of();
+        for (int i = low; i < yarnCount && compareYarn(yarnEntry(i), value) == 0; i++) {
+            int entry = yarnEntry(i);
+
+            if (result.isEmpty()) result = new ArrayList<>(1);
+            result.add(entry < 0 ? readString(classInt(~entry, 0)) : joinStrings(classInt(memberInt(entry, 0), 0), memberInt(entry, 4)));
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the index of a class by its intermediary name, or -1 if nothing in it is mapped
+     */
+    private int findClass(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = classCount - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(classInt(mid, 0), -1, bytes);
+
+            if (cmp < 0) low = mid + 1;
+            else if (cmp > 0) high = mid - 1;
+            else return mid;
+        }
+
+        return -1;
+    }
+
+    private int compareYarn(int entry, byte[] value) {
+        return entry < 0 ? compare(classInt(~entry, 4), -1, value) : compare(memberInt(entry, 8), memberInt(entry, 12), value);
+    }
+
+    private int classInt(int index, int field) {
+        return buffer.getInt(HEADER + index * CLASS_SIZE + field);
+    }
+
+    private int memberInt(int index, int field) {
+        return buffer.getInt(members + index * MEMBER_SIZE + field);
+    }
+
+    private int yarnEntry(int index) {
+        return buffer.getInt(byYarn + index * 4);
+    }
+
+    /**
+     * Compares an owner and member joined by {@code #}, the way {@link Mappings#asMethod(String, String)} joins them,
+     * with a name. Without a member, only the owner is compared.
+     */
+    private int compare(int owner, int member, byte[] other) {
+        int ownerLength = buffer.getInt(owner);
+        int cmp = compareBytes(owner, other, 0);
+
+        if (cmp != 0) return cmp;
+        if (member < 0) return Integer.compare(ownerLength, other.length);
+        if (ownerLength >= other.length) return 1;
+
+        cmp = Integer.compare('#', Byte.toUnsignedInt(other[ownerLength]));
+        if (cmp != 0) return cmp;
+
+        cmp = compareBytes(member, other, ownerLength + 1);
+        return cmp != 0 ? cmp : Integer.compare(ownerLength + 1 + buffer.getInt(member), other.length);
+    }
+
+    /**
+     * Compares a string with part of another, starting at {@code from}, over the length both of them have.
+     */
+    private int compareBytes(int offset, byte[] other, int from) {
+        int length = Math.min(buffer.getInt(offset), other.length - from);
+
+        for (int i = 0; i < length; i++) {
+            int cmp = Integer.compare(Byte.toUnsignedInt(buffer.get(offset + 4 + i)), Byte.toUnsignedInt(other[from + i]));
+            if (cmp != 0) return cmp;
+        }
+
+        return 0;
+    }
+
+    private String joinStrings(int owner, int member) {
+        return member < 0 ? readString(owner) : readString(owner) + "#" + readString(member);
+    }
+
+    private String readString(int offset) {
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        buffer.get(offset + 4, bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean isValid() {
+        for (int i = 0; i < classCount; i++) {
+            int first = classInt(i, 8);
+            int count = classInt(i, 12);
+
+            if (!isString(classInt(i, 0), false) || !isString(classInt(i, 4), true) || first < 0 || count < 0 || first > memberCount - count)
+                return false;
+        }
+
+        for (int i = 0; i < memberCount; i++) {
+            int owner = memberInt(i, 0);
+
+            if (owner < 0 || owner >= classCount || !isString(memberInt(i, 4), false) || !isString(memberInt(i, 8), false) || !isString(memberInt(i, 12), true))
+                return false;
+        }
+
+        for (int i = 0; i < yarnCount; i++) {
+            int entry = yarnEntry(i);
+
+            if (entry >= memberCount || (entry < 0 && (~entry >= classCount || classInt(~entry, 4) < 0)))
+                return false;
+        }
+
+        return true;
+    }
+
+    private boolean isString(int offset, boolean optional) {
+        if (offset == -1) return optional;
+
+        int poolStart = byYarn + yarnCount * 4;
+        return offset >= poolStart && offset <= buffer.capacity() - 4 && buffer.getInt(offset) >= 0 && buffer.getInt(offset) <= buffer.capacity() - 4 - offset;
+    }
+
+    /**
+     * Collects mappings a class or member at a time. Names are interned as they're added, so a name shared by many
+     * members is only held once while the table is built.
+     */
+    static final class Builder {
+        private final Map<String, String> names = new HashMap<>();
+        private final Map<String, Owner> classes = new HashMap<>();
+
+        void addClass(String name, String yarn) {
+            getClass(name).yarn = intern(yarn);
+        }
+
+        void addMember(String owner, String name, String yarnOwner, @Nullable String yarnName) {
+            getClass(owner).members.put(intern(name), new Member(intern(yarnOwner), yarnName == null ? null : intern(yarnName)));
+        }
+
+        /**
+         * Adds everything collected by another builder, such as one that parsed a different part of the same file.
+         */
+        void addAll(Builder other) {
+            other.classes.forEach((name, owner) -> {
+                if (owner.yarn != null) addClass(name, owner.yarn);
+
+                owner.members.forEach((member, value) -> addMember(name, member, value.yarnOwner(), value.yarnName()));
+            });
+        }
+
+        MappingTable build() {
+            String[] classNames = sortByBytes(classes.keySet());
+            Pool pool = new Pool();
+            int memberCount = 0;
+            int yarnCount = 0;
+
+            for (String className : classNames) {
+                Owner owner = classes.get(className);
+
+                pool.add(className);
+                if (owner.yarn != null) {
+                    pool.add(owner.yarn);
+                    yarnCount++;
+                }
+
+                owner.members.forEach((name, member) -> {
+                    pool.add(name);
+                    pool.add(member.yarnOwner());
+                    if (member.yarnName() != null) pool.add(member.yarnName());
+                });
+
+                memberCount += owner.members.size();
+                yarnCount += owner.members.size();
+            }
+
+            int poolStart = HEADER + classNames.length * CLASS_SIZE + memberCount * MEMBER_SIZE + yarnCount * 4;
+            ByteBuffer buffer = ByteBuffer.allocate(poolStart + pool.size);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(classNames.length).putInt(memberCount).putInt(yarnCount);
+
+            // Every yarn name next to the entry it's for, to be sorted once all of them are known
+            int[] yarnEntries = new int[yarnCount];
+            byte[][] yarnNames = new byte[yarnCount][];
+            int yarnIndex = 0;
+            int memberIndex = 0;
+
+            for (int i = 0; i < classNames.length; i++) {
+                Owner owner = classes.get(classNames[i]);
+
+                buffer.putInt(poolStart + pool.offset(classNames[i]))
+                    .putInt(owner.yarn == null ? -1 : poolStart + pool.offset(owner.yarn))
+                    .putInt(memberIndex)
+                    .putInt(owner.members.size());
+
+                if (owner.yarn != null) {
+                    yarnEntries[yarnIndex] = ~i;
+                    yarnNames[yarnIndex++] = owner.yarn.getBytes(StandardCharsets.UTF_8);
+                }
+
+                memberIndex += owner.members.size();
+            }
+
+            memberIndex = 0;
+            for (int i = 0; i < classNames.length; i++) {
+                Owner owner = classes.get(classNames[i]);
+
+                for (String name : sortByBytes(owner.members.keySet())) {
+                    Member member = owner.members.get(name);
+
+                    buffer.putInt(i)
+                        .putInt(poolStart + pool.offset(name))
+                        .putInt(poolStart + pool.offset(member.yarnOwner()))
+                        .putInt(member.yarnName() == null ? -1 : poolStart + pool.offset(member.yarnName()));
+
+                    yarnEntries[yarnIndex] = memberIndex++;
+                    yarnNames[yarnIndex++] = (member.yarnName() == null ? member.yarnOwner() : member.yarnOwner() + "#" + member.yarnName()).getBytes(StandardCharsets.UTF_8);
+                }
+            }
+
+            // The sort is stable, so entries with the same yarn name keep classes ahead of members
+            Integer[] byYarn = new Integer[yarnCount];
+            for (int i = 0; i < yarnCount; i++) byYarn[i] = i;
+            Arrays.sort(byYarn, (a, b) -> Arrays.compareUnsigned(yarnNames[a], yarnNames[b]));
+
+            for (int index : byYarn) buffer.putInt(yarnEntries[index]);
+
+            for (byte[] string : pool.strings) buffer.putInt(string.length).put(string);
+
+            return new MappingTable(buffer.clear());
+        }
+
+        private Owner getClass(String name) {
+            return classes.computeIfAbsent(intern(name), unused -> new Owner());
+        }
+
+        private String intern(String name) {
+            String existing = names.putIfAbsent(name, name);
+            return existing != null ? existing : name;
+        }
+
+        private static String[] sortByBytes(Collection<String> strings) {
+            String[] sorted = strings.toArray(String[]::new);
+            byte[][] bytes = new byte[sorted.length][];
+            Integer[] order = new Integer[sorted.length];
+
+            for (int i = 0; i < sorted.length; i++) {
+                bytes[i] = sorted[i].getBytes(StandardCharsets.UTF_8);
+                order[i] = i;
+            }
+
+            Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(bytes[a], bytes[b]));
+
+            String[] result = new String[sorted.length];
+            for (int i = 0; i < sorted.length; i++) result[i] = sorted[order[i]];
+
+            return result;
+        }
+    }
+
+    private static final class Owner {
+        private @Nullable String yarn;
+        private final Map<String, Member> members = new HashMap<>();
+    }
+
+    private record Member(String yarnOwner, @Nullable String yarnName) { }
+
+    // Strings in the order they're written, and where each one starts relative to the start of the pool
+    private static final class Pool {
+        private final Map<String, Integer> offsets = new HashMap<>();
+        private final List<byte[]> strings = new ArrayList<>();
+        private int size;
+
+        private void add(String string) {
+            if (offsets.containsKey(string)) return;
+
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            offsets.put(string, size);
+            strings.add(bytes);
+            size += 4 + bytes.length;
+        }
+
+        private int offset(String string) {
+            return offsets.get(string);
+        }
+    }
+}
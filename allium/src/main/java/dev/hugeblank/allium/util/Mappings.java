@@ -6,27 +6,49 @@ import me.basiqueevangelist.enhancedreflection.api.EField;
 import me.basiqueevangelist.enhancedreflection.api.EMethod;
 import org.jetbrains.annotations.Debug;
 
-import java.util.*;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Debug.Renderer(text = "\"Mappings { ... }\"", hasChildren = "false")
-public record Mappings(Map<String, List<String>> yarn2intermediary, Map<String, String> intermediary2yarn) {
-    public static Mappings of(Map<String, String> intermediary2yarn) {
-        var yarn2intermediary = new HashMap<String, List<String>>();
+public final class Mappings {
+    private final CompletableFuture<MappingTable> table;
 
-        for (var entry : intermediary2yarn.entrySet()) {
-            yarn2intermediary.computeIfAbsent(entry.getValue(), (s) -> new ArrayList<>()).add(entry.getKey());
-        }
+    private Mappings(CompletableFuture<MappingTable> table) {
+        this.table = table;
+    }
 
-        return new Mappings(yarn2intermediary, intermediary2yarn);
+    public static Mappings of(Map<String, String> intermediary2yarn) {
+        return new Mappings(CompletableFuture.completedFuture(MappingTable.of(intermediary2yarn)));
+    }
+
+    /**
+     * @return mappings that are still loading. The first lookup waits for them, and later ones don't wait at all.
+     */
+    static Mappings loading(CompletableFuture<MappingTable> table) {
+        return new Mappings(table);
     }
 
     public List<String> getIntermediary(String value) {
-        var val = this.yarn2intermediary.get(value);
-        return val != null && !Allium.DEVELOPMENT ? val : List.of(value);
+        var val = table().getIntermediary(value);
+        return !val.isEmpty() && !Allium.DEVELOPMENT ? val : List.of(value);
     }
 
     public String getYarn(String value) {
-        return this.intermediary2yarn.getOrDefault(value, value);
+        var val = table().getYarn(value);
+        return val != null ? val : value;
+    }
+
+    /**
+     * @throws IllegalStateException if the mappings failed to load, caused by whatever stopped them
+     */
+    private MappingTable table() {
+        try {
+            return this.table.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Mappings failed to load", e.getCause());
+        }
     }
 
     public static String asMethod(String className, String method) {
@@ -17,9 +17,14 @@ import org.apache.commons.io.FileUtils;
 import java.io.*;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class YarnLoader {
 
@@ -30,16 +35,49 @@ public class YarnLoader {
     private static final String NAMESPACE_FROM = "intermediary";
     private static final String NAMESPACE_TO = "named";
 
+    private static volatile CompletableFuture<MappingTable> loading;
+
+    /**
+     * Starts loading the mappings in the background. Lookups made before they're ready wait for them. A failure is
+     * logged once when it happens, and thrown by every lookup from then on.
+     */
     public static Mappings init() {
+        CompletableFuture<MappingTable> table = CompletableFuture.supplyAsync(() -> {
+            try {
+                return loadOrCreateMappings();
+            } catch (Exception e) {
+                // Kept as the cause as is, rather than wrapped once more by supplyAsync
+                throw new CompletionException(e);
+            }
+        }, task -> {
+            Thread thread = new Thread(task, "Allium Mappings Loader");
+            thread.setDaemon(true);
+            thread.start();
+        });
+
+        table.whenComplete((result, e) -> {
+            if (e != null) Allium.LOGGER.error("Failed to load mappings!", e instanceof CompletionException ? e.getCause() : e);
+        });
+
+        loading = table;
+        return Mappings.loading(table);
+    }
+
+    /**
+     * @return a string that changes whenever the mappings in use do
+     */
+    public static String getMappingsStamp() throws IOException {
         try {
-            return loadOrCreateMappings();
-        } catch (Exception e) {
-            Allium.LOGGER.error("Failed to load mappings!");
-            throw new RuntimeException(e);
+            // The mappings may still be downloading
+            if (loading != null) loading.join();
+        } catch (CompletionException e) {
+            throw new IOException("Mappings failed to load", e.getCause());
         }
+
+        return CACHED_MAPPINGS.getFileName() + ":" + Files.size(CACHED_MAPPINGS) + ":" + Files.getLastModifiedTime(CACHED_MAPPINGS).toMillis();
     }
 
-    private static Mappings loadOrCreateMappings() throws IOException {
+    private static MappingTable loadOrCreateMappings() throws IOException {
         // Unlike NEC, it's imperative that allium has these mappings otherwise all methods
         // will be intermediary names. not good.
         if (!Files.exists(CACHED_MAPPINGS)) {
@@ -76,9 +114,94 @@ public class YarnLoader {
             }
         }
 
-        Map<String, String> mappings = new HashMap<>();
+        Path binaryMappings = FileHelper.MAPPINGS_CFG_DIR.resolve("mappings-" + hashMappings() + ".bin");
+
+        if (Files.isRegularFile(binaryMappings)) {
+            try {
+                return MappingTable.read(binaryMappings);
+            } catch (IOException e) {
+                Allium.LOGGER.warn("Discarding unreadable mapping cache " + binaryMappings.getFileName(), e);
+            }
+        }
+
+        MappingTable mappings = parseMappings();
+
+        try {
+            // Anything left over is for mappings that are no longer in use
+            try (var files = Files.newDirectoryStream(FileHelper.MAPPINGS_CFG_DIR, "mappings-*.bin")) {
+                for (Path file : files) Files.delete(file);
+            }
+
+            mappings.write(binaryMappings);
+            return MappingTable.read(binaryMappings);
+        } catch (IOException e) {
+            Allium.LOGGER.warn("Couldn't cache mappings, they'll be parsed again next launch", e);
+            return mappings;
+        }
+    }
+
+    /**
+     * @return a hash of the tiny file, so a cache built from it is never used with other mappings
+     */
+    private static String hashMappings() throws IOException {
+        try (FileChannel channel = FileChannel.open(CACHED_MAPPINGS, StandardOpenOption.READ)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
 
-        try (BufferedReader mappingReader = Files.newBufferedReader(CACHED_MAPPINGS)) {
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+
+    /**
+     * Parses the tiny file in chunks of whole classes, one per processor, and combines what they find.
+     */
+    private static MappingTable parseMappings() throws IOException {
+        String text;
+
+        try {
+            text = Files.readString(CACHED_MAPPINGS);
+        } catch (IOException e) {
+            Allium.LOGGER.error("Could not load mappings");
+            throw e;
+        }
+
+        // Every chunk is parsed as a file of its own, so each one gets a copy of the header
+        int firstClass = text.indexOf("\nc\t") + 1;
+        if (firstClass == 0) firstClass = text.length();
+
+        String header = text.substring(0, firstClass);
+        int chunkCount = Runtime.getRuntime().availableProcessors();
+        List<String> chunks = new ArrayList<>(chunkCount);
+
+        for (int i = 1, start = firstClass; start < text.length(); i++) {
+            int end = i >= chunkCount ? -1 : text.indexOf("\nc\t", Math.max(start, firstClass + (int) ((long) (text.length() - firstClass) * i / chunkCount)));
+            end = end < 0 ? text.length() : end + 1;
+
+            chunks.add(text.substring(start, end));
+            start = end;
+        }
+
+        MappingTable.Builder mappings = new MappingTable.Builder();
+
+        try {
+            chunks.parallelStream()
+                .map(chunk -> parseChunk(header + chunk))
+                .toList()
+                .forEach(mappings::addAll);
+        } catch (UncheckedIOException e) {
+            Allium.LOGGER.error("Could not load mappings");
+            throw e.getCause();
+        }
+
+        return mappings.build();
+    }
+
+    private static MappingTable.Builder parseChunk(String chunk) {
+        MappingTable.Builder mappings = new MappingTable.Builder();
+
+        try (BufferedReader mappingReader = new BufferedReader(new StringReader(chunk))) {
             TinyV2Factory.visit(mappingReader, new TinyVisitor() {
                 private final Map<String, Integer> namespaceIndex = new HashMap<>();
                 private final Map<String, String> currentClass = new HashMap<>();
@@ -91,7 +214,7 @@ public class YarnLoader {
 
                 @Override
                 public void pushClass(MappingGetter name) {
-                    mappings.put(
+                    mappings.addClass(
                             Mappings.asClass(name.get(namespaceIndex.get(NAMESPACE_FROM))),
                             Mappings.asClass(name.get(namespaceIndex.get(NAMESPACE_TO)))
                     );
@@ -102,28 +225,27 @@ public class YarnLoader {
 
                 @Override
                 public void pushMethod(MappingGetter name, String descriptor) {
-                    mappings.put(
-                            Mappings.asMethod(currentClass.get(NAMESPACE_FROM), name.get(namespaceIndex.get(NAMESPACE_FROM))),
-                            Mappings.asMethod(currentClass.get(NAMESPACE_TO), name.get(namespaceIndex.get(NAMESPACE_TO)))
+                    mappings.addMember(
+                            currentClass.get(NAMESPACE_FROM), name.get(namespaceIndex.get(NAMESPACE_FROM)),
+                            currentClass.get(NAMESPACE_TO), name.get(namespaceIndex.get(NAMESPACE_TO))
                     );
                 }
 
                 @Override
                 public void pushField(MappingGetter name, String descriptor) {
-                    mappings.put(
-                            Mappings.asMethod(currentClass.get(NAMESPACE_FROM), name.get(namespaceIndex.get(NAMESPACE_FROM))),
-                            Mappings.asMethod(currentClass.get(NAMESPACE_TO), name.get(namespaceIndex.get(NAMESPACE_TO)))
+                    mappings.addMember(
+                            currentClass.get(NAMESPACE_FROM), name.get(namespaceIndex.get(NAMESPACE_FROM)),
+                            currentClass.get(NAMESPACE_TO), name.get(namespaceIndex.get(NAMESPACE_TO))
                     );
                 }
 
             });
 
         } catch (IOException e) {
-            Allium.LOGGER.error("Could not load mappings");
-            throw e;
+            throw new UncheckedIOException(e);
         }
 
-        return Mappings.of(mappings);
+        return mappings;
     }
 
     private static class YarnVersion {
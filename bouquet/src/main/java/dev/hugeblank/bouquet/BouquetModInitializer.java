@@ -1,6 +1,7 @@
 package dev.hugeblank.bouquet;
 
 import net.fabricmc.api.ModInitializer;
+import net.fabricmc.loader.api.FabricLoader;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,6 +9,7 @@ import org.slf4j.LoggerFactory;
 public class BouquetModInitializer implements ModInitializer {
 	public static final String ID = "bouquet";
 	public static final Logger LOGGER = LoggerFactory.getLogger(ID);
+	public static final String VERSION = FabricLoader.getInstance().getModContainer(ID).orElseThrow().getMetadata().getVersion().getFriendlyString();
 
 	@Override
 	public void onInitialize() {
@@ -4,6 +4,7 @@ import dev.hugeblank.allium.loader.Script;
 import dev.hugeblank.allium.api.WrappedLuaLibrary;
 import dev.hugeblank.bouquet.api.lib.commands.CommandRegisterEntry;
 import dev.hugeblank.allium.loader.type.annotation.CoerceToNative;
+import dev.hugeblank.allium.loader.type.annotation.CoerceToView;
 import dev.hugeblank.allium.loader.type.annotation.LuaWrapped;
 import org.jetbrains.annotations.Nullable;
 
@@ -29,6 +30,12 @@ public class AlliumLib implements WrappedLuaLibrary {
         return Script.getAllScripts().stream().toList();
     }
 
+    // Like getAllScripts, but scripts are only converted as they're read instead of copied into a table
+    @LuaWrapped
+    public @CoerceToView List<Script> getAllScriptsView() {
+        return List.copyOf(Script.getAllScripts());
+    }
+
     @LuaWrapped
     public @Nullable Script getScript(String id) {
         return Script.getFromID(id);
@@ -1,24 +1,31 @@
 package dev.hugeblank.bouquet.api.lib;
 
 import dev.hugeblank.allium.loader.type.StaticBinder;
+import dev.hugeblank.allium.loader.type.coercion.ProxyGenerator;
 import dev.hugeblank.allium.loader.type.coercion.TypeCoercions;
 import dev.hugeblank.allium.loader.type.annotation.LuaWrapped;
 import dev.hugeblank.allium.loader.type.property.PropertyResolver;
+import dev.hugeblank.allium.util.BytecodeCache;
+import dev.hugeblank.bouquet.BouquetModInitializer;
 import dev.hugeblank.bouquet.util.AsmUtil;
 import dev.hugeblank.bouquet.util.ClassFieldBuilder;
 import me.basiqueevangelist.enhancedreflection.api.EClass;
 import me.basiqueevangelist.enhancedreflection.api.EConstructor;
 import me.basiqueevangelist.enhancedreflection.api.EMethod;
 import me.basiqueevangelist.enhancedreflection.api.EParameter;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Type;
 import org.squiddev.cobalt.LuaState;
 import org.squiddev.cobalt.LuaValue;
 import org.squiddev.cobalt.ValueFactory;
 import org.squiddev.cobalt.Varargs;
+import org.squiddev.cobalt.function.Dispatch;
 import org.squiddev.cobalt.function.LuaFunction;
 
 import java.util.*;
+import java.util.function.BiConsumer;
 
 import static org.objectweb.asm.Opcodes.*;
 
@@ -27,51 +34,32 @@ public class ClassBuilder {
     protected final EClass<?> superClass;
     protected final String className;
     protected final LuaState state;
-    protected final ClassWriter c = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+    private final List<EClass<?>> interfaces;
     private final List<EMethod> methods = new ArrayList<>();
-    private final ClassFieldBuilder fields;
+    // Methods are only written once the class is built, so that a class built in an earlier run can skip writing
+    private final List<BiConsumer<ClassVisitor, ClassFieldBuilder>> methodWriters = new ArrayList<>();
+    // The bytecode cache is only reset when allium changes, so the version of bouquet has to be part of the signature
+    private final StringBuilder signature = new StringBuilder("class ").append(BouquetModInitializer.VERSION);
+    private @Nullable Class<?> built;
 
     @LuaWrapped
     public ClassBuilder(EClass<?> superClass, List<EClass<?>> interfaces, LuaState state) {
         this.state = state;
-        this.className = AsmUtil.getUniqueClassName();
-        this.fields = new ClassFieldBuilder(className, c);
+        // A superclass built from cached bytes may carry a name from an earlier run, which can't be reused by its subclass
+        String className = AsmUtil.getUniqueClassName();
+        while (className.replace('/', '.').equals(superClass.raw().getName())) className = AsmUtil.getUniqueClassName();
+        this.className = className;
+        this.superClass = superClass;
+        this.interfaces = List.copyOf(interfaces);
 
-        this.c.visit(
-                V17,
-                ACC_PUBLIC,
-                className,
-                null,
-                superClass.name().replace('.', '/'),
-                interfaces.stream().map(x -> x.name().replace('.', '/')).toArray(String[]::new)
-        );
+        signature.append(' ').append(superClass.raw().getName());
+        for (var inrf : interfaces) signature.append(' ').append(inrf.raw().getName());
 
         for (EConstructor<?> superCtor : superClass.constructors()) {
-            if (!superCtor.isPublic()) continue;
-
-            var desc = Type.getConstructorDescriptor(superCtor.raw());
-            var m = c.visitMethod(superCtor.modifiers(), "<init>", desc, null, null);
-            m.visitCode();
-            var args = Type.getArgumentTypes(desc);
-
-            m.visitVarInsn(ALOAD, 0);
-
-            int argIndex = 1;
-
-            for (Type arg : args) {
-                m.visitVarInsn(arg.getOpcode(ILOAD), argIndex);
-
-                argIndex += arg.getSize();
-            }
-
-            m.visitMethodInsn(INVOKESPECIAL, Type.getInternalName(superClass.raw()), "<init>", desc, false);
-            m.visitInsn(RETURN);
-
-            m.visitMaxs(0, 0);
-            m.visitEnd();
+            if (superCtor.isPublic())
+                signature.append("\n").append(superCtor.modifiers()).append(" <init>").append(Type.getConstructorDescriptor(superCtor.raw()));
         }
 
-        this.superClass = superClass;
         this.methods.addAll(this.superClass.methods());
         for (var inrf : interfaces) {
             this.methods.addAll(inrf.methods());
@@ -126,62 +114,81 @@ public class ClassBuilder {
     }
 
     private void writeMethod(String methodName, WrappedType[] params, WrappedType returnClass, int access, LuaFunction func) {
-        var paramsType = Arrays.stream(params).map(x -> x.raw).map(EClass::raw).map(Type::getType).toArray(Type[]::new);
+        signature.append("\n").append(access).append(' ').append(methodName).append(getDescriptor(params, returnClass));
+        if (returnClass != null) signature.append(' ').append(returnClass.real.wrapPrimitive().raw().getName());
+
+        methodWriters.add((c, fields) -> writeMethod(c, fields, methodName, params, returnClass, access, func));
+    }
+
+    private void writeMethod(ClassVisitor c, ClassFieldBuilder fields, String methodName, WrappedType[] params, WrappedType returnClass, int access, LuaFunction func) {
         var returnType = returnClass == null ? Type.VOID_TYPE : Type.getType(returnClass.raw.raw());
         var isStatic = (access & ACC_STATIC) != 0;
 
-        var desc = Type.getMethodDescriptor(returnType, paramsType);
+        var desc = getDescriptor(params, returnClass);
         var m = c.visitMethod(access, methodName, desc, null, null);
-        int varPrefix = Type.getArgumentsAndReturnSizes(desc) >> 2;
         int thisVarOffset = isStatic ? 0 : 1;
+        // Cobalt can take a few arguments directly, without an array and Varargs to hold them
+        String fixedCall = ProxyGenerator.getFixedCall(params.length + thisVarOffset);
 
         m.visitCode();
 
-        if (isStatic) varPrefix -= 1;
+        var isVoid = returnClass == null || returnType.getSort() == Type.VOID;
 
-        m.visitLdcInsn(params.length + thisVarOffset);
-        m.visitTypeInsn(ANEWARRAY, Type.getInternalName(LuaValue.class));
-        m.visitVarInsn(ASTORE, varPrefix);
+        fields.storeAndGet(m, state, LuaState.class);
+        if (!isVoid) m.visitInsn(DUP);
+        fields.storeAndGet(m, func, LuaFunction.class);
+
+        if (fixedCall == null) {
+            m.visitLdcInsn(params.length + thisVarOffset);
+            m.visitTypeInsn(ANEWARRAY, Type.getInternalName(LuaValue.class));
+        }
 
         if (!isStatic) {
-            m.visitVarInsn(ALOAD, varPrefix);
-            m.visitLdcInsn(0);
+            if (fixedCall == null) {
+                m.visitInsn(DUP);
+                m.visitLdcInsn(0);
+            }
+
             m.visitVarInsn(ALOAD, 0);
-            fields.storeAndGetComplex(m, EClass::fromJava, EClass.class, className);
+            fields.storeAndGetComplex(m, EClass::fromJava, EClass.class);
             m.visitMethodInsn(INVOKESTATIC, Type.getInternalName(TypeCoercions.class), "toLuaValue", "(Ljava/lang/Object;Lme/basiqueevangelist/enhancedreflection/api/EClass;)Lorg/squiddev/cobalt/LuaValue;", false);
-            m.visitInsn(AASTORE);
+
+            if (fixedCall == null) m.visitInsn(AASTORE);
         }
 
         int argIndex = thisVarOffset;
         var args = Type.getArgumentTypes(desc);
         for (int i = 0; i < args.length; i++) {
-            m.visitVarInsn(ALOAD, varPrefix);
-            m.visitLdcInsn(i + thisVarOffset);
+            if (fixedCall == null) {
+                m.visitInsn(DUP);
+                m.visitLdcInsn(i + thisVarOffset);
+            }
+
             m.visitVarInsn(args[i].getOpcode(ILOAD), argIndex);
 
-            if (args[i].getSort() != Type.OBJECT || args[i].getSort() != Type.ARRAY) {
-                AsmUtil.wrapPrimitive(m, args[i]);
+            if (!ProxyGenerator.writeDirectToLua(m, args[i])) {
+                fields.storeAndGet(m, params[i].real.wrapPrimitive(), EClass.class);
+                m.visitMethodInsn(INVOKESTATIC, Type.getInternalName(TypeCoercions.class), "toLuaValue", "(Ljava/lang/Object;Lme/basiqueevangelist/enhancedreflection/api/EClass;)Lorg/squiddev/cobalt/LuaValue;", false);
             }
 
-            fields.storeAndGet(m, params[i].real.wrapPrimitive(), EClass.class);
-            m.visitMethodInsn(INVOKESTATIC, Type.getInternalName(TypeCoercions.class), "toLuaValue", "(Ljava/lang/Object;Lme/basiqueevangelist/enhancedreflection/api/EClass;)Lorg/squiddev/cobalt/LuaValue;", false);
-            m.visitInsn(AASTORE);
+            if (fixedCall == null) m.visitInsn(AASTORE);
 
             argIndex += args[i].getSize();
         }
 
-        var isVoid = returnClass == null || returnType.getSort() == Type.VOID;
+        if (fixedCall != null) {
+            m.visitMethodInsn(INVOKESTATIC, Type.getInternalName(Dispatch.class), "call", fixedCall, false);
 
-        fields.storeAndGet(m, state, LuaState.class);
-        if (!isVoid) m.visitInsn(DUP);
-        fields.storeAndGet(m, func, LuaFunction.class);
-        m.visitInsn(SWAP);
-        m.visitVarInsn(ALOAD, varPrefix);
-        m.visitMethodInsn(INVOKESTATIC, Type.getInternalName(ValueFactory.class), "varargsOf", "([Lorg/squiddev/cobalt/LuaValue;)Lorg/squiddev/cobalt/Varargs;", false);
-        m.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(LuaFunction.class), "invoke", "(Lorg/squiddev/cobalt/LuaState;Lorg/squiddev/cobalt/Varargs;)Lorg/squiddev/cobalt/Varargs;", false);
+            if (isVoid) m.visitInsn(POP);
+        } else {
+            m.visitMethodInsn(INVOKESTATIC, Type.getInternalName(ValueFactory.class), "varargsOf", "([Lorg/squiddev/cobalt/LuaValue;)Lorg/squiddev/cobalt/Varargs;", false);
+            m.visitMethodInsn(INVOKESTATIC, Type.getInternalName(Dispatch.class), "invoke", "(Lorg/squiddev/cobalt/LuaState;Lorg/squiddev/cobalt/LuaValue;Lorg/squiddev/cobalt/Varargs;)Lorg/squiddev/cobalt/Varargs;", false);
+
+            if (isVoid) m.visitInsn(POP);
+            else m.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(Varargs.class), "first", "()Lorg/squiddev/cobalt/LuaValue;", false);
+        }
 
         if (!isVoid) {
-            m.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(Varargs.class), "first", "()Lorg/squiddev/cobalt/LuaValue;", false);
             fields.storeAndGet(m, returnClass.real.wrapPrimitive(), EClass.class);
             m.visitMethodInsn(INVOKESTATIC, Type.getInternalName(TypeCoercions.class), "toJava", "(Lorg/squiddev/cobalt/LuaState;Lorg/squiddev/cobalt/LuaValue;Lme/basiqueevangelist/enhancedreflection/api/EClass;)Ljava/lang/Object;", false);
             m.visitTypeInsn(CHECKCAST, Type.getInternalName(returnClass.real.wrapPrimitive().raw()));
@@ -197,23 +204,96 @@ public class ClassBuilder {
         m.visitEnd();
     }
 
+    private static String getDescriptor(WrappedType[] params, WrappedType returnClass) {
+        var paramsType = Arrays.stream(params).map(x -> x.raw).map(EClass::raw).map(Type::getType).toArray(Type[]::new);
+        var returnType = returnClass == null ? Type.VOID_TYPE : Type.getType(returnClass.raw.raw());
+
+        return Type.getMethodDescriptor(returnType, paramsType);
+    }
+
+    private void writeClass(ClassVisitor c, ClassFieldBuilder fields) {
+        c.visit(
+                V17,
+                ACC_PUBLIC,
+                className,
+                null,
+                superClass.name().replace('.', '/'),
+                interfaces.stream().map(x -> x.name().replace('.', '/')).toArray(String[]::new)
+        );
+
+        for (EConstructor<?> superCtor : superClass.constructors()) {
+            if (!superCtor.isPublic()) continue;
+
+            var desc = Type.getConstructorDescriptor(superCtor.raw());
+            var m = c.visitMethod(superCtor.modifiers(), "<init>", desc, null, null);
+            m.visitCode();
+            var args = Type.getArgumentTypes(desc);
+
+            m.visitVarInsn(ALOAD, 0);
+
+            int argIndex = 1;
+
+            for (Type arg : args) {
+                m.visitVarInsn(arg.getOpcode(ILOAD), argIndex);
+
+                argIndex += arg.getSize();
+            }
+
+            m.visitMethodInsn(INVOKESPECIAL, Type.getInternalName(superClass.raw()), "<init>", desc, false);
+            m.visitInsn(RETURN);
+
+            m.visitMaxs(0, 0);
+            m.visitEnd();
+        }
+
+        for (var writer : methodWriters) {
+            writer.accept(c, fields);
+        }
+
+        c.visitEnd();
+    }
+
     public byte[] getByteArray() {
+        ClassWriter c = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        writeClass(c, new ClassFieldBuilder());
+
         return c.toByteArray();
     }
 
     @LuaWrapped
     public LuaValue build() {
-        byte[] classBytes = c.toByteArray();
+        ClassFieldBuilder fields = new ClassFieldBuilder();
+        byte[] classBytes = null;
+
+        if (BytecodeCache.isEnabled()) {
+            // Cached bytes still need their class data, which writing the class without keeping the output collects
+            writeClass(BytecodeCache.discardingVisitor(), fields);
+            classBytes = BytecodeCache.get(signature.toString(), fields.layout());
+        }
+
+        if (classBytes == null) {
+            ClassWriter c = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+            fields = new ClassFieldBuilder();
+            writeClass(c, fields);
+
+            classBytes = c.toByteArray();
+            BytecodeCache.put(signature.toString(), fields.layout(), classBytes);
+        }
 
-        Class<?> klass = AsmUtil.defineClass(className, classBytes);
+        Class<?> klass = AsmUtil.defineClass(className, classBytes, superClass.raw(), fields.classData());
 
         fields.apply(klass);
+        this.built = klass;
 
         return StaticBinder.bindClass(EClass.fromJava(klass));
     }
 
+    /**
+     * @return the name of the built class, or the name it's going to get if it hasn't been built yet. A class built from
+     * cached bytes keeps the name it was given when those were written.
+     */
     public String getName() {
-        return this.className;
+        return built == null ? this.className.replace('/', '.') : built.getName();
     }
 
     private record WrappedType(EClass<?> raw, EClass<?> real) {
@@ -2,18 +2,24 @@ package dev.hugeblank.bouquet.api.lib;
 
 import dev.hugeblank.allium.api.WrappedLuaLibrary;
 import dev.hugeblank.allium.loader.type.annotation.CoerceToNative;
+import dev.hugeblank.allium.loader.type.annotation.CoerceToView;
 import dev.hugeblank.allium.loader.type.annotation.LuaWrapped;
 import net.minecraft.block.Block;
 import net.minecraft.item.Item;
 import net.minecraft.registry.Registries;
+import net.minecraft.registry.Registry;
 import net.minecraft.registry.RegistryKey;
 import net.minecraft.registry.RegistryKeys;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.world.ServerWorld;
 import net.minecraft.util.Identifier;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -45,9 +51,77 @@ public class GameLib implements WrappedLuaLibrary {
         return Registries.ITEM.stream().collect(Collectors.toMap(x -> Registries.ITEM.getId(x).toString(), x -> x));
     }
 
+    // Like listBlocks, but entries are looked up in the registry as they're read instead of copied into a table
+    @LuaWrapped
+    public @CoerceToView Map<String, Block> listBlocksView() {
+        return new RegistryMap<>(Registries.BLOCK);
+    }
+
+    // Like listItems, but entries are looked up in the registry as they're read instead of copied into a table
+    @LuaWrapped
+    public @CoerceToView Map<String, Item> listItemsView() {
+        return new RegistryMap<>(Registries.ITEM);
+    }
+
     @LuaWrapped
     public @CoerceToNative Map<Identifier, ServerWorld> listWorlds(MinecraftServer server) {
         return StreamSupport.stream(server.getWorlds().spliterator(), false)
                 .collect(Collectors.toMap(x -> x.getRegistryKey().getValue(), x -> x));
     }
+
+    /**
+     * Read-only map over a registry, keyed by ID. Entries are looked up in the registry as they're asked for, rather
+     * than copying every entry up front.
+     */
+    private static final class RegistryMap<T> extends AbstractMap<String, T> {
+        private final Registry<T> registry;
+
+        private RegistryMap(Registry<T> registry) {
+            this.registry = registry;
+        }
+
+        @Override
+        public T get(Object key) {
+            Identifier id = key instanceof String str ? Identifier.tryParse(str) : null;
+            return id != null && registry.containsId(id) ? registry.get(id) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size() {
+            return registry.getIds().size();
+        }
+
+        @Override
+        public Set<Entry<String, T>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, T>> iterator() {
+                    Iterator<Identifier> ids = registry.getIds().iterator();
+
+                    return new Iterator<>() {
+                        @Override
+                        public boolean hasNext() {
+                            return ids.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, T> next() {
+                            Identifier id = ids.next();
+                            return new SimpleImmutableEntry<>(id.toString(), registry.get(id));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return RegistryMap.this.size();
+                }
+            };
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package dev.hugeblank.bouquet.api.lib;
 
+import dev.hugeblank.allium.loader.type.ArrayView;
 import dev.hugeblank.allium.loader.type.coercion.TypeCoercions;
 import dev.hugeblank.allium.api.WrappedLuaLibrary;
 import dev.hugeblank.allium.loader.type.annotation.LuaWrapped;
@@ -48,6 +49,17 @@ public class NbtLib implements WrappedLuaLibrary {
         };
     }
 
+    // Like fromNbt, but int and long arrays become views instead of tables. The views are over a copy, so writing to
+    // them doesn't change the element.
+    @LuaWrapped
+    public static LuaValue fromNbtView(NbtElement element) {
+        return switch (element.getType()) {
+            case NbtElement.INT_ARRAY_TYPE -> ArrayView.of(((NbtIntArray) element).getIntArray().clone());
+            case NbtElement.LONG_ARRAY_TYPE -> ArrayView.of(((NbtLongArray) element).getLongArray().clone());
+            default -> fromNbt(element);
+        };
+    }
+
     @Nullable
     @LuaWrapped
     public static NbtElement toNbt(LuaValue value) throws LuaError {
@@ -67,6 +79,10 @@ public class NbtLib implements WrappedLuaLibrary {
             var val = userdata.toUserdata();
             if (val instanceof NbtElement) {
                 return (NbtElement) val;
+            } else if (val instanceof int[] ints) {
+                return new NbtIntArray(ints.clone());
+            } else if (val instanceof long[] longs) {
+                return new NbtLongArray(longs.clone());
             }
         }
 
@@ -1,5 +1,6 @@
 package dev.hugeblank.bouquet.api.lib.http;
 
+import dev.hugeblank.allium.loader.type.annotation.CoerceToView;
 import dev.hugeblank.allium.loader.type.annotation.LuaWrapped;
 import dev.hugeblank.allium.loader.type.annotation.OptionalArg;
 import io.netty.buffer.ByteBuf;
@@ -171,6 +172,12 @@ public class LuaByteBuf {
         return arr;
     }
 
+    // Like readBytes, but without copying the bytes into a table
+    @LuaWrapped
+    public byte @CoerceToView [] readBytesView(int length) {
+        return readBytes(length);
+    }
+
     @LuaWrapped
     public LuaByteBuf writeString(String text, @OptionalArg String charset) {
         raw.writeBytes(text.getBytes(getCharsetFor(charset)));
@@ -1,12 +1,15 @@
 package dev.hugeblank.bouquet.util;
 
 import dev.hugeblank.allium.Allium;
+import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.*;
 import org.objectweb.asm.util.CheckClassAdapter;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.objectweb.asm.Opcodes.*;
@@ -14,12 +17,25 @@ import static org.objectweb.asm.Opcodes.*;
 public class AsmUtil {
     private static final AtomicInteger NEXT_CLASS_ID = new AtomicInteger();
     public static final Handle LAMBDA_METAFACTORY = new Handle(H_INVOKESTATIC, "java/lang/invoke/LambdaMetafactory", "metafactory", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;", false);
+    public static final Handle CLASS_DATA_AT = new Handle(H_INVOKESTATIC, "dev/hugeblank/bouquet/util/AsmUtil", "classDataAt", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;I)Ljava/lang/Object;", false);
 
     public static String getUniqueClassName() {
         return "allium/GeneratedClass_" + NEXT_CLASS_ID.incrementAndGet();
     }
 
     public static Class<?> defineClass(String name, byte[] bytes) {
+        return defineClass(name, bytes, null, null);
+    }
+
+    /**
+     * Defines a class in a class loader of its own, so it can be unloaded as soon as nothing uses it anymore. Unlike a
+     * hidden class, it can still be extended: a class whose superclass was defined here goes into a child of that
+     * class's loader, which resolves the superclass by name.
+     *
+     * @param superClass the superclass of the class, or null if it can't have been defined here
+     * @param classData  the values the class loads through {@link #CLASS_DATA_AT}, or null if it has none
+     */
+    public static Class<?> defineClass(String name, byte[] bytes, @Nullable Class<?> superClass, @Nullable List<?> classData) {
         if (Allium.DEVELOPMENT) {
             Path classPath = Allium.DUMP_DIRECTORY.resolve(name + ".class");
 
@@ -34,14 +50,34 @@ public class AsmUtil {
             cr.accept(new CheckClassAdapter(new ClassVisitor(Opcodes.ASM9) { }), 0);
         }
 
-        return DefiningClassLoader.INSTANCE.defineClass(name.replace('/', '.'), bytes);
+        ClassLoader parent = superClass != null && superClass.getClassLoader() instanceof DefiningClassLoader loader
+            ? loader
+            : AsmUtil.class.getClassLoader();
+
+        return new DefiningClassLoader(parent, classData).defineClass(name.replace('/', '.'), bytes);
+    }
+
+    /**
+     * Bootstrap for the dynamic constants that load class data, like {@link MethodHandles#classDataAt} does for hidden
+     * classes.
+     */
+    public static Object classDataAt(MethodHandles.Lookup lookup, String name, Class<?> type, int index) throws IllegalAccessException {
+        if ((lookup.lookupModes() & MethodHandles.Lookup.ORIGINAL) == 0
+            || !(lookup.lookupClass().getClassLoader() instanceof DefiningClassLoader loader)
+            || loader.classData == null) {
+            throw new IllegalAccessException(lookup + " has no class data");
+        }
+
+        return type.cast(loader.classData.get(index));
     }
 
+    // Defines a single class, and holds its class data for as long as the class is around
     private static class DefiningClassLoader extends ClassLoader {
-        public static final DefiningClassLoader INSTANCE = new DefiningClassLoader(DefiningClassLoader.class.getClassLoader());
+        private final @Nullable List<?> classData;
 
-        public DefiningClassLoader(ClassLoader parent) {
+        public DefiningClassLoader(ClassLoader parent, @Nullable List<?> classData) {
             super(parent);
+            this.classData = classData;
         }
 
         public Class<?> defineClass(String name, byte[] bytes) {
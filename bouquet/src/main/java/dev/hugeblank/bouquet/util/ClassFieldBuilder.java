@@ -1,89 +1,90 @@
 package dev.hugeblank.bouquet.util;
 
-import com.mojang.datafixers.util.Pair;
-import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ConstantDynamic;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
 
-import java.lang.annotation.ElementType;
-import java.lang.annotation.Retention;
-import java.lang.annotation.RetentionPolicy;
-import java.lang.annotation.Target;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Function;
 
-import static org.objectweb.asm.Opcodes.*;
-
+/**
+ * Collects the objects a generated class needs and passes them to it as class data, rather than in static fields.
+ * Generated code loads each one as a dynamic constant, so they go away along with the class.
+ */
 public class ClassFieldBuilder {
-    private final String className;
-    private final ClassVisitor c;
-    private int fieldIndex = 0;
-    private final HashMap<String, Pair<Object, Class<?>>> storedFields = new HashMap<>();
-    private final HashMap<String, Function<Class<?>, ?>> complexFields = new HashMap<>();
-
-    public ClassFieldBuilder(String className, ClassVisitor c) {
-        this.className = className;
-        this.c = c;
-    }
-
-    public <T> String store(T o, Class<T> fieldType) {
-        for (var entry : storedFields.entrySet()) {
-            if (o == entry.getValue().getFirst() && fieldType.isAssignableFrom(entry.getValue().getSecond())) {
-                return entry.getKey();
+    private final List<Object> values = new ArrayList<>();
+    private final List<Class<?>> types = new ArrayList<>();
+    private final Map<Integer, Function<Class<?>, ?>> complexValues = new HashMap<>();
+    // Which value each load refers to, which the generated code depends on as much as its bytecode
+    private final StringBuilder layout = new StringBuilder();
+    private List<Object> classData;
+
+    public <T> int store(T o, Class<T> fieldType) {
+        for (int i = 0; i < values.size(); i++) {
+            if (o == values.get(i) && !complexValues.containsKey(i) && fieldType.isAssignableFrom(types.get(i))) {
+                return record(i, fieldType);
             }
         }
 
-        String fieldName = "allium$field" + fieldIndex++;
-
-        var f = c.visitField(ACC_PUBLIC | ACC_STATIC, fieldName, Type.getDescriptor(fieldType), null, null);
-        var a = f.visitAnnotation(GeneratedFieldValue.DESCRIPTOR, true);
-        a.visit("value", o.toString());
-        a.visitEnd();
-
-        storedFields.put(fieldName, new Pair<>(o, fieldType));
-        return fieldName;
+        values.add(o);
+        types.add(fieldType);
+        return record(values.size() - 1, fieldType);
     }
 
-    public <T> String storeComplex(Function<Class<?>, T> supplier, Class<T> fieldType, String description) {
-        String fieldName = "allium$field" + fieldIndex++;
+    /**
+     * Stores a value that can only be created once the class exists. It's filled in by {@link #apply(Class)}.
+     */
+    public <T> int storeComplex(Function<Class<?>, T> supplier, Class<T> fieldType) {
+        values.add(null);
+        types.add(fieldType);
+        complexValues.put(values.size() - 1, supplier);
+        return record(values.size() - 1, fieldType);
+    }
 
-        var f = c.visitField(ACC_PUBLIC | ACC_STATIC, fieldName, Type.getDescriptor(fieldType), null, null);
-        var a = f.visitAnnotation(GeneratedFieldValue.DESCRIPTOR, true);
-        a.visit("description", description);
-        a.visitEnd();
+    public <T> void storeAndGet(MethodVisitor m, T o, Class<T> type) {
+        load(m, store(o, type), type);
+    }
 
-        complexFields.put(fieldName, supplier);
-        return fieldName;
+    public <T> void storeAndGetComplex(MethodVisitor m, Function<Class<?>, T> supplier, Class<T> type) {
+        load(m, storeComplex(supplier, type), type);
     }
 
-    public <T> void storeAndGet(MethodVisitor m, T o, Class<T> type) {
-        m.visitFieldInsn(GETSTATIC, className, store(o, type), Type.getDescriptor(type));
+    /**
+     * @return a description of which value every load so far refers to. Classes with the same bytecode but a different
+     * layout can't share class data.
+     */
+    public String layout() {
+        return layout.toString();
     }
 
-    public <T> void storeAndGetComplex(MethodVisitor m, Function<Class<?>, T> supplier, Class<T> type, String description) {
-        m.visitFieldInsn(GETSTATIC, className, storeComplex(supplier, type, description), Type.getDescriptor(type));
+    /**
+     * @return the class data to define the class with
+     */
+    public List<Object> classData() {
+        if (classData == null) classData = Arrays.asList(values.toArray());
+
+        return classData;
     }
 
     public void apply(Class<?> builtClass) {
-        try {
-            for (var entry : storedFields.entrySet()) {
-                builtClass.getField(entry.getKey()).set(null, entry.getValue().getFirst());
-            }
+        // Dynamic constants are only resolved when first used, which is always after this.
+        List<Object> data = classData();
 
-            for (var entry : complexFields.entrySet()) {
-                builtClass.getField(entry.getKey()).set(null, entry.getValue().apply(builtClass));
-            }
-        } catch (ReflectiveOperationException e) {
-            throw new RuntimeException("Failed to apply fields to class", e);
+        for (var entry : complexValues.entrySet()) {
+            data.set(entry.getKey(), entry.getValue().apply(builtClass));
         }
     }
 
-    @Retention(RetentionPolicy.RUNTIME)
-    @Target(ElementType.FIELD)
-    public @interface GeneratedFieldValue {
-        String DESCRIPTOR = "Lme/hugeblank/allium/util/ClassFieldBuilder$GeneratedFieldValue;";
+    private int record(int index, Class<?> type) {
+        layout.append(index).append(' ').append(type.getName()).append(';');
+        return index;
+    }
 
-        String value() default "";
-        String description() default "";
+    private static void load(MethodVisitor m, int index, Class<?> type) {
+        m.visitLdcInsn(new ConstantDynamic("_", Type.getDescriptor(type), AsmUtil.CLASS_DATA_AT, index));
     }
 }